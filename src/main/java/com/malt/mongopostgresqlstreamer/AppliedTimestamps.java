@@ -0,0 +1,94 @@
+package com.malt.mongopostgresqlstreamer;
+
+import org.bson.Document;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Tracks oplog entries applied out of order by several workers. The checkpoint can only move up to the last entry
+ * before which every dispatched entry has been applied. Entries are tracked in dispatch order rather than by
+ * timestamp, the changes of a transaction read from a change stream sharing the same one.
+ */
+class AppliedTimestamps {
+
+    private final Queue<PendingEntry> pendingEntries = new ConcurrentLinkedQueue<>();
+    private final Map<Document, PendingEntry> pendingEntriesByDocument = Collections.synchronizedMap(new IdentityHashMap<>());
+
+    // guarded by this
+    private int unapplied;
+    private boolean abandoned;
+
+    void dispatched(Document entry) {
+        PendingEntry pendingEntry = new PendingEntry(entry);
+        pendingEntriesByDocument.put(entry, pendingEntry);
+        pendingEntries.add(pendingEntry);
+        synchronized (this) {
+            unapplied++;
+        }
+    }
+
+    void applied(Document entry) {
+        PendingEntry pendingEntry = pendingEntriesByDocument.remove(entry);
+        if (pendingEntry != null) {
+            pendingEntry.applied = true;
+            synchronized (this) {
+                if (--unapplied == 0) {
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Wait until every dispatched entry has been applied, or until the entries are {@link #abandon() abandoned}.
+     */
+    synchronized void awaitApplied() throws InterruptedException {
+        while (unapplied > 0 && !abandoned) {
+            wait();
+        }
+    }
+
+    /**
+     * Stop waiting for the entries not applied yet, e.g. because a worker failed.
+     */
+    synchronized void abandon() {
+        abandoned = true;
+        notifyAll();
+    }
+
+    /**
+     * Must be called by the thread dispatching the entries.
+     *
+     * @return the last entry applied in order since the last call, if any
+     */
+    Optional<Document> appliedUpTo() {
+        Document appliedUpTo = null;
+
+        PendingEntry oldest = pendingEntries.peek();
+        while (oldest != null && oldest.applied) {
+            appliedUpTo = oldest.entry;
+            pendingEntries.poll();
+            oldest = pendingEntries.peek();
+        }
+
+        return Optional.ofNullable(appliedUpTo);
+    }
+
+    boolean isEmpty() {
+        return pendingEntries.isEmpty();
+    }
+
+    private static class PendingEntry {
+        private final Document entry;
+        private volatile boolean applied;
+
+        PendingEntry(Document entry) {
+            this.entry = entry;
+        }
+    }
+}
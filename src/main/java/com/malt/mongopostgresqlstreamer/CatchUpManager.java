@@ -0,0 +1,110 @@
+package com.malt.mongopostgresqlstreamer;
+
+import com.mongodb.MongoClient;
+import com.mongodb.MongoException;
+import com.mongodb.MongoNamespace;
+import com.mongodb.client.MongoDatabase;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.mongodb.client.model.Accumulators.sum;
+import static com.mongodb.client.model.Aggregates.group;
+import static com.mongodb.client.model.Aggregates.match;
+import static com.mongodb.client.model.Filters.*;
+import static java.util.Arrays.asList;
+
+/**
+ * Shortens the catch-up after a long outage: a collection with much more oplog entries to replay than documents is
+ * imported again instead, and its entries up to the import are skipped.
+ */
+@Service
+@Slf4j
+public class CatchUpManager {
+
+    @Value(value = "${mongo.connector.catchup.ratio:0}")
+    private double resyncRatio;
+
+    @Autowired
+    private MappingsManager mappingsManager;
+    @Autowired
+    private MongoClient mongoClient;
+    @Autowired
+    @Qualifier("oplog")
+    private MongoDatabase oplog;
+    @Autowired
+    private OplogSource oplogSource;
+    @Autowired
+    private InitialImporter initialImporter;
+    @Autowired
+    private OplogApplier oplogApplier;
+
+    void resyncLaggingCollections(BsonTimestamp checkpoint) {
+        if (resyncRatio <= 0 || !oplogSource.covers(checkpoint)) {
+            // after a gap, every collection is imported again anyway
+            return;
+        }
+
+        Map<String, Long> backlog;
+        try {
+            backlog = backlogPerNamespace(checkpoint);
+        } catch (MongoException e) {
+            log.warn("Unable to estimate the oplog backlog, every entry will be replayed", e);
+            return;
+        }
+
+        List<String> laggingNamespaces = new ArrayList<>();
+        for (Map.Entry<String, Long> namespaceBacklog : backlog.entrySet()) {
+            String namespace = namespaceBacklog.getKey();
+            long documents = countDocuments(namespace);
+            if (namespaceBacklog.getValue() > resyncRatio * documents) {
+                log.info("{} oplog entries to replay for the {} documents of {}, importing it again instead",
+                        namespaceBacklog.getValue(), documents, namespace);
+                laggingNamespaces.add(namespace);
+            }
+        }
+        if (laggingNamespaces.isEmpty()) {
+            return;
+        }
+
+        // taken before the imports, so that the entries written during them are replayed
+        BsonTimestamp resyncPoint = oplogSource.lastTimestamp();
+        initialImporter.resync(laggingNamespaces, namespace -> oplogApplier.skipUpTo(namespace, resyncPoint));
+    }
+
+    /**
+     * Count the entries of each mapped namespace written to the oplog after the checkpoint, with a single scan of
+     * the oplog.
+     */
+    Map<String, Long> backlogPerNamespace(BsonTimestamp checkpoint) {
+        List<Document> namespaceBacklogs = oplog.getCollection("oplog.rs").aggregate(asList(
+                match(and(
+                        gt("ts", checkpoint),
+                        in("ns", mappingsManager.mappedNamespaces()),
+                        in("op", "i", "u", "d"))),
+                group("$ns", sum("entries", 1))
+        )).into(new ArrayList<>());
+
+        Map<String, Long> backlog = new HashMap<>();
+        for (Document namespaceBacklog : namespaceBacklogs) {
+            backlog.put(namespaceBacklog.getString("_id"), namespaceBacklog.get("entries", Number.class).longValue());
+        }
+        return backlog;
+    }
+
+    long countDocuments(String namespace) {
+        MongoNamespace mongoNamespace = new MongoNamespace(namespace);
+        return mongoClient.getDatabase(mongoNamespace.getDatabaseName())
+                .getCollection(mongoNamespace.getCollectionName())
+                .estimatedDocumentCount();
+    }
+}
@@ -0,0 +1,115 @@
+package com.malt.mongopostgresqlstreamer;
+
+import com.mongodb.ServerAddress;
+import com.mongodb.ServerCursor;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.Document;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Turns change stream events into oplog entries. Updates and replacements both become a {@code u} entry whose
+ * {@code o} is the looked up document. Every entry carries the resume token of its change.
+ */
+class ChangeStreamCursor implements MongoCursor<Document> {
+
+    private static final DocumentCodec DOCUMENT_CODEC = new DocumentCodec();
+
+    private final MongoCursor<ChangeStreamDocument<Document>> changes;
+
+    private Document next;
+
+    ChangeStreamCursor(MongoCursor<ChangeStreamDocument<Document>> changes) {
+        this.changes = changes;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (next == null) {
+            if (!changes.hasNext()) {
+                return false;
+            }
+            next = toOplogEntry(changes.next());
+        }
+        return true;
+    }
+
+    @Override
+    public Document next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return pollNext();
+    }
+
+    @Override
+    public Document tryNext() {
+        while (next == null) {
+            ChangeStreamDocument<Document> change = changes.tryNext();
+            if (change == null) {
+                return null;
+            }
+            next = toOplogEntry(change);
+        }
+        return pollNext();
+    }
+
+    @Override
+    public void close() {
+        changes.close();
+    }
+
+    @Override
+    public ServerCursor getServerCursor() {
+        return changes.getServerCursor();
+    }
+
+    @Override
+    public ServerAddress getServerAddress() {
+        return changes.getServerAddress();
+    }
+
+    private Document pollNext() {
+        Document document = next;
+        next = null;
+        return document;
+    }
+
+    private Document toOplogEntry(ChangeStreamDocument<Document> change) {
+        Document entry = new Document("ts", change.getClusterTime())
+                .append("ns", change.getNamespace().getFullName())
+                .append("resumeToken", change.getResumeToken());
+
+        switch (change.getOperationType()) {
+            case INSERT:
+                entry.append("op", "i").append("o", change.getFullDocument());
+                break;
+            case UPDATE:
+            case REPLACE:
+                if (change.getFullDocument() == null) {
+                    // the document has been removed since, its removal comes next
+                    return null;
+                }
+                entry.append("op", "u")
+                        .append("o", change.getFullDocument())
+                        .append("o2", toDocument(change.getDocumentKey()));
+                break;
+            case DELETE:
+                entry.append("op", "d").append("o", toDocument(change.getDocumentKey()));
+                break;
+            default:
+                return null;
+        }
+
+        return entry;
+    }
+
+    private static Document toDocument(BsonDocument document) {
+        return DOCUMENT_CODEC.decode(new BsonDocumentReader(document), DecoderContext.builder().build());
+    }
+}
@@ -0,0 +1,103 @@
+package com.malt.mongopostgresqlstreamer;
+
+import com.mongodb.MongoClient;
+import com.mongodb.MongoNamespace;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.changestream.FullDocument;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.BsonDocument;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static com.mongodb.client.model.Aggregates.match;
+import static com.mongodb.client.model.Filters.*;
+import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Reads changes from a cluster wide change stream (MongoDB 4.0+). Collections are filtered server side, updated
+ * documents are looked up server side, and the stream resumes after the resume token of the last applied change.
+ */
+@Service
+@Slf4j
+@ConditionalOnProperty(name = "mongo.connector.source", havingValue = "changestream")
+public class ChangeStreamSource implements OplogSource {
+
+    @Value(value = "${mongo.connector.oplog.batch.size:0}")
+    private int cursorBatchSize;
+
+    @Value(value = "${mongo.connector.oplog.await.time:0}")
+    private long maxAwaitTime;
+
+    @Autowired
+    private MappingsManager mappingsManager;
+    @Autowired
+    private MongoClient mongoClient;
+
+    @Override
+    public MongoCursor<Document> open(Optional<BsonTimestamp> checkpoint, Optional<BsonDocument> resumeToken) {
+        ChangeStreamIterable<Document> changes = mongoClient.watch(singletonList(match(changeFilters())))
+                .fullDocument(FullDocument.UPDATE_LOOKUP);
+        if (cursorBatchSize > 0) {
+            changes = changes.batchSize(cursorBatchSize);
+        }
+        if (maxAwaitTime > 0) {
+            changes = changes.maxAwaitTime(maxAwaitTime, TimeUnit.MILLISECONDS);
+        }
+
+        if (resumeToken.isPresent()) {
+            log.debug("Resuming change stream after {}", resumeToken.get());
+            changes = changes.resumeAfter(resumeToken.get());
+        } else if (checkpoint.isPresent()) {
+            // the change at the checkpoint itself is applied again, which is harmless
+            changes = changes.startAtOperationTime(checkpoint.get());
+        }
+
+        return new ChangeStreamCursor(changes.iterator());
+    }
+
+    /**
+     * The oplog is not read: a position that rolled off fails the change stream when it is opened or resumed, and
+     * the error starts the gap recovery.
+     */
+    @Override
+    public boolean covers(BsonTimestamp checkpoint) {
+        return true;
+    }
+
+    /**
+     * @return the operation time of the cluster, given in the reply of any command
+     */
+    @Override
+    public BsonTimestamp lastTimestamp() {
+        Document reply = mongoClient.getDatabase("admin").runCommand(new Document("ping", 1));
+        BsonTimestamp operationTime = reply.get("operationTime", BsonTimestamp.class);
+        if (operationTime == null) {
+            throw new IllegalStateException("No operationTime in the reply of the cluster. Change streams require a replica set or a sharded cluster");
+        }
+        return operationTime;
+    }
+
+    private Bson changeFilters() {
+        List<Bson> mappedNamespaces = mappingsManager.mappedNamespaces().stream()
+                .map(MongoNamespace::new)
+                .map(namespace -> and(
+                        eq("ns.db", namespace.getDatabaseName()),
+                        eq("ns.coll", namespace.getCollectionName())))
+                .collect(toList());
+
+        return and(
+                or(mappedNamespaces),
+                in("operationType", "insert", "update", "replace", "delete"));
+    }
+}
@@ -1,44 +1,99 @@
 package com.malt.mongopostgresqlstreamer;
 
 import com.malt.mongopostgresqlstreamer.monitoring.InitialImport;
+import com.mongodb.MongoClient;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.model.Sorts;
 import com.mongodb.client.model.UpdateOptions;
 import lombok.extern.slf4j.Slf4j;
+import org.bson.BsonDocument;
 import org.bson.BsonTimestamp;
 import org.bson.Document;
+import org.bson.conversions.Bson;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.util.Date;
 import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static com.mongodb.client.model.Filters.eq;
 import static com.mongodb.client.model.Updates.combine;
 import static com.mongodb.client.model.Updates.set;
+import static com.mongodb.client.model.Updates.unset;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 @Service
 @Slf4j
 public class CheckpointManager {
 
+    /**
+     * Identifies the checkpoint and the import progress of a connector, shared by every component storing them.
+     */
+    static final String IDENTIFIER = "${mongo.connector.identifier:streamer}";
+
     private static final String OPLOG_COLLECTION_NAME = "oplog.rs";
 
     private final MongoDatabase database;
     private final MongoDatabase oplog;
     private final String identifier;
+    private final int checkpointOperations;
+    private final long checkpointInterval;
+
+    private final AtomicReference<BsonTimestamp> pendingCheckpoint = new AtomicReference<>();
+    private final AtomicReference<BsonDocument> pendingResumeToken = new AtomicReference<>();
+    private final AtomicInteger pendingOperations = new AtomicInteger();
+    private ScheduledExecutorService periodicFlush;
 
     @Autowired
     CheckpointManager(
             @Qualifier("database") MongoDatabase database,
             @Qualifier("oplog") MongoDatabase oplog,
-            @Value(value = "${mongo.connector.identifier:test}") String identifier) {
+            @Value(value = IDENTIFIER) String identifier,
+            @Value(value = "${mongo.connector.checkpoint.operations:1}") int checkpointOperations,
+            @Value(value = "${mongo.connector.checkpoint.interval:0}") long checkpointInterval) {
 
         this.database = database;
         this.oplog = oplog;
         this.identifier = identifier;
+        this.checkpointOperations = checkpointOperations;
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    @PostConstruct
+    void startPeriodicFlush() {
+        if (checkpointInterval <= 0) {
+            return;
+        }
+
+        periodicFlush = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "checkpoint-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        periodicFlush.scheduleWithFixedDelay(() -> {
+            try {
+                flush();
+            } catch (Exception e) {
+                log.warn("Unable to flush checkpoint, it will be retried", e);
+            }
+        }, checkpointInterval, checkpointInterval, MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stopPeriodicFlush() {
+        if (periodicFlush != null) {
+            periodicFlush.shutdown();
+        }
+        flush();
     }
 
     public Optional<BsonTimestamp> getLastKnown() {
@@ -52,6 +107,15 @@ public class CheckpointManager {
         return checkpoint;
     }
 
+    Optional<BsonDocument> getLastResumeToken() {
+        Document lastProcessedOplog = database.getCollection("mongooplog").find(eq("_id", identifier)).first();
+        if (lastProcessedOplog == null || lastProcessedOplog.get("resumeToken") == null) {
+            return Optional.empty();
+        }
+        return Optional.of(lastProcessedOplog.get("resumeToken", Document.class)
+                .toBsonDocument(Document.class, MongoClient.getDefaultCodecRegistry()));
+    }
+
     public InitialImport lastImportStatus() {
         MongoCollection<Document> collection = database.getCollection("mongooplog");
         Document status = collection.find(eq("_id", identifier)).first();
@@ -82,18 +146,93 @@ public class CheckpointManager {
 
     void keep(BsonTimestamp timestamp) {
         MongoCollection<Document> collection = database.getCollection("mongooplog");
-        collection.updateOne(eq("_id", identifier), set("ts", timestamp), new UpdateOptions().upsert(true));
+        collection.updateOne(eq("_id", identifier), combine(
+                set("ts", timestamp),
+                unset("resumeToken")
+        ), new UpdateOptions().upsert(true));
     }
 
-    void storeImportStart() {
+    private void keep(BsonTimestamp timestamp, BsonDocument resumeToken) {
+        Bson update = resumeToken == null
+                ? set("ts", timestamp)
+                : combine(set("ts", timestamp), set("resumeToken", resumeToken));
+        MongoCollection<Document> collection = database.getCollection("mongooplog");
+        collection.updateOne(eq("_id", identifier), update, new UpdateOptions().upsert(true));
+    }
+
+    /**
+     * Remember that every operation up to {@code timestamp} has been applied, without writing it right away.
+     * The highest timestamp is written once {@code mongo.connector.checkpoint.operations} operations were kept,
+     * every {@code mongo.connector.checkpoint.interval} milliseconds and on shutdown. Operations applied since the
+     * last write are replayed after a crash.
+     */
+    void keepEventually(BsonTimestamp timestamp) {
+        keepEventually(timestamp, null);
+    }
+
+    /**
+     * @param resumeToken the resume token of the last applied change, written along with the timestamp so that the
+     *                    change stream resumes right after it
+     */
+    void keepEventually(BsonTimestamp timestamp, BsonDocument resumeToken) {
+        pendingCheckpoint.accumulateAndGet(timestamp, CheckpointManager::latest);
+        if (resumeToken != null) {
+            pendingResumeToken.set(resumeToken);
+        }
+        if (pendingOperations.incrementAndGet() >= checkpointOperations) {
+            flush();
+        }
+    }
+
+    synchronized void flush() {
+        pendingOperations.set(0);
+        BsonTimestamp timestamp = pendingCheckpoint.getAndSet(null);
+        if (timestamp == null) {
+            return;
+        }
+        BsonDocument resumeToken = pendingResumeToken.getAndSet(null);
+
+        try {
+            keep(timestamp, resumeToken);
+        } catch (RuntimeException e) {
+            pendingCheckpoint.accumulateAndGet(timestamp, CheckpointManager::latest);
+            pendingResumeToken.compareAndSet(null, resumeToken);
+            throw e;
+        }
+    }
+
+    private static BsonTimestamp latest(BsonTimestamp current, BsonTimestamp candidate) {
+        if (current == null || current.compareTo(candidate) < 0) {
+            return candidate;
+        }
+        return current;
+    }
+
+    /**
+     * @param importStart the last oplog entry before the import, from which the oplog is tailed once it is done
+     */
+    void storeImportStart(BsonTimestamp importStart) {
         MongoCollection<Document> collection = database.getCollection("mongooplog");
         collection.updateOne(eq("_id", identifier), combine(
                 set("import", "running"),
                 set("start", new Date()),
-                set("ts", null)
+                set("importTs", importStart),
+                set("ts", null),
+                unset("resumeToken")
         ), new UpdateOptions().upsert(true));
     }
 
+    /**
+     * @return the last oplog entry before an initial load still running, i.e. interrupted if read on startup
+     */
+    Optional<BsonTimestamp> getInterruptedImportStart() {
+        Document status = database.getCollection("mongooplog").find(eq("_id", identifier)).first();
+        if (status == null || !"running".equals(status.getString("import"))) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(status.get("importTs", BsonTimestamp.class));
+    }
+
     void storeImportEnd(float length) {
         float lenghtInMinutes = (length/1000F)/60F;
 
@@ -0,0 +1,102 @@
+package com.malt.mongopostgresqlstreamer;
+
+import org.bson.Document;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriterSettings;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Oplog entries of a collection held back during a gap recovery, in oplog order. The first entries are kept in
+ * memory, the next ones are spilled to a temporary file in extended JSON so that a long recovery does not exhaust
+ * the heap.
+ */
+class DeferredEntries {
+
+    private static final JsonWriterSettings JSON_SETTINGS = JsonWriterSettings.builder()
+            .outputMode(JsonMode.EXTENDED)
+            .build();
+
+    private final int memoryLimit;
+    private final List<Document> inMemory = new ArrayList<>();
+    private Path spillFile;
+    private BufferedWriter spill;
+
+    DeferredEntries(int memoryLimit) {
+        this.memoryLimit = memoryLimit;
+    }
+
+    void add(Document entry) {
+        if (spill == null && inMemory.size() < memoryLimit) {
+            inMemory.add(entry);
+            return;
+        }
+        try {
+            if (spill == null) {
+                spillFile = Files.createTempFile("mongo-streamer-deferred-", ".json");
+                spill = Files.newBufferedWriter(spillFile, StandardCharsets.UTF_8);
+            }
+            spill.write(entry.toJson(JSON_SETTINGS));
+            spill.newLine();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to spill deferred oplog entries to " + spillFile, e);
+        }
+    }
+
+    /**
+     * Hand the entries over in order, by chunks of at most the memory limit, then discard them.
+     */
+    void release(Consumer<List<Document>> chunkConsumer) {
+        try {
+            if (!inMemory.isEmpty()) {
+                chunkConsumer.accept(new ArrayList<>(inMemory));
+            }
+            if (spill != null) {
+                spill.close();
+                try (BufferedReader reader = Files.newBufferedReader(spillFile, StandardCharsets.UTF_8)) {
+                    List<Document> chunk = new ArrayList<>();
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        chunk.add(Document.parse(line));
+                        if (chunk.size() >= Math.max(1, memoryLimit)) {
+                            chunkConsumer.accept(chunk);
+                            chunk = new ArrayList<>();
+                        }
+                    }
+                    if (!chunk.isEmpty()) {
+                        chunkConsumer.accept(chunk);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read deferred oplog entries from " + spillFile, e);
+        } finally {
+            discard();
+        }
+    }
+
+    void discard() {
+        inMemory.clear();
+        if (spill == null) {
+            return;
+        }
+        try {
+            spill.close();
+            Files.deleteIfExists(spillFile);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to delete " + spillFile, e);
+        } finally {
+            spill = null;
+            spillFile = null;
+        }
+    }
+}
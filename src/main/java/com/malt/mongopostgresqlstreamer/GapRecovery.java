@@ -0,0 +1,156 @@
+package com.malt.mongopostgresqlstreamer;
+
+import lombok.extern.slf4j.Slf4j;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Recovers from a position that has rolled off the oplog. The entries written in between are lost and any mapped
+ * collection may have been modified by them, so the mapped collections are imported again in the background, by
+ * the import workers, while the oplog is read from its last entry at the start of the recovery:
+ * <ul>
+ * <li>entries up to the start of the recovery are skipped, the imports covering them,</li>
+ * <li>later entries of a collection are deferred until its import is done, then applied in order. Past
+ * {@code mongo.connector.gap.buffer.size} entries, they are spilled to a temporary file.</li>
+ * </ul>
+ * Entries of the other collections are applied meanwhile. Every method but {@link #start()} must be called by the
+ * thread reading the oplog.
+ */
+@Service
+@Slf4j
+public class GapRecovery {
+
+    @Value(value = "${mongo.connector.gap.buffer.size:10000}")
+    private int bufferSize;
+
+    @Autowired
+    private MappingsManager mappingsManager;
+    @Autowired
+    private OplogSource oplogSource;
+    @Autowired
+    private InitialImporter initialImporter;
+    @Autowired
+    private OplogApplier oplogApplier;
+
+    private final Set<String> resyncingNamespaces = ConcurrentHashMap.newKeySet();
+    private final Map<String, DeferredEntries> deferredEntries = new HashMap<>();
+    private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+    private volatile BsonTimestamp resyncPoint;
+    private Thread resync;
+
+    /**
+     * @return the position the oplog must be read from during the recovery
+     */
+    BsonTimestamp start() {
+        stop();
+        List<String> namespaces = new ArrayList<>(new LinkedHashSet<>(mappingsManager.mappedNamespaces()));
+        resyncPoint = oplogSource.lastTimestamp();
+        log.error("Last known oplog is not in the oplog anymore, {} collections are imported again from {}",
+                namespaces.size(), resyncPoint);
+
+        failure.set(null);
+        discardDeferredEntries();
+        resyncingNamespaces.addAll(namespaces);
+        for (String namespace : namespaces) {
+            oplogApplier.skipUpTo(namespace, resyncPoint);
+        }
+
+        resync = new Thread(() -> resync(namespaces), "gap-resync");
+        resync.setDaemon(true);
+        resync.start();
+        return resyncPoint;
+    }
+
+    private void resync(List<String> namespaces) {
+        try {
+            initialImporter.resync(namespaces, namespace -> {
+                resyncingNamespaces.remove(namespace);
+                log.info("{} imported again, its deferred oplog entries are applied", namespace);
+            });
+        } catch (RuntimeException e) {
+            log.error("Unable to import collections again after the oplog gap", e);
+            failure.compareAndSet(null, e);
+        }
+    }
+
+    /**
+     * The checkpoint must not move until the recovery is over: the recovery starts again after a restart.
+     */
+    boolean inProgress() {
+        return !resyncingNamespaces.isEmpty() || !deferredEntries.isEmpty();
+    }
+
+    /**
+     * @return whether the entry must not be applied now, it is then kept to be applied once its collection is
+     * imported again if needed
+     */
+    boolean defers(Document entry) {
+        RuntimeException resyncFailure = failure.get();
+        if (resyncFailure != null) {
+            throw resyncFailure;
+        }
+
+        String namespace = entry.getString("ns");
+        DeferredEntries deferred = deferredEntries.get(namespace);
+        if (deferred != null) {
+            // applied after the entries deferred before
+            deferred.add(entry);
+            return true;
+        }
+        if (!resyncingNamespaces.contains(namespace)) {
+            return false;
+        }
+        if (entry.get("ts", BsonTimestamp.class).compareTo(resyncPoint) > 0) {
+            deferredEntries.computeIfAbsent(namespace, notFound -> new DeferredEntries(bufferSize)).add(entry);
+        }
+        return true;
+    }
+
+    /**
+     * @return whether a collection holding deferred entries has been imported again since the last release
+     */
+    boolean hasReleasableEntries() {
+        return deferredEntries.keySet().stream().anyMatch(namespace -> !resyncingNamespaces.contains(namespace));
+    }
+
+    /**
+     * Hand over the deferred entries of the collections imported again since the last call, collection by
+     * collection in oplog order, by chunks of at most {@code mongo.connector.gap.buffer.size} entries.
+     */
+    void releaseDeferredEntries(Consumer<List<Document>> chunkConsumer) {
+        Iterator<Map.Entry<String, DeferredEntries>> namespaces = deferredEntries.entrySet().iterator();
+        while (namespaces.hasNext()) {
+            Map.Entry<String, DeferredEntries> namespace = namespaces.next();
+            if (!resyncingNamespaces.contains(namespace.getKey())) {
+                namespace.getValue().release(chunkConsumer);
+                namespaces.remove();
+            }
+        }
+    }
+
+    private void discardDeferredEntries() {
+        deferredEntries.values().forEach(DeferredEntries::discard);
+        deferredEntries.clear();
+    }
+
+    private void stop() {
+        if (resync == null) {
+            return;
+        }
+        resync.interrupt();
+        try {
+            resync.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        resyncingNamespaces.clear();
+    }
+}
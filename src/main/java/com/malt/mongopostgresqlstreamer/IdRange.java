@@ -0,0 +1,141 @@
+package com.malt.mongopostgresqlstreamer;
+
+import com.mongodb.MongoClient;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static com.mongodb.client.model.Filters.*;
+
+/**
+ * A part of a collection, delimited by its {@code _id}, that can be imported independently of the others. A range
+ * query only matches ids of the type of its bounds, so the ranges of a split collection always come with a last
+ * range holding the documents whose id is of any other type.
+ */
+class IdRange {
+
+    private static final Map<Class<?>, String> BOUND_TYPES = new HashMap<>();
+
+    static {
+        BOUND_TYPES.put(ObjectId.class, "objectId");
+        BOUND_TYPES.put(String.class, "string");
+        BOUND_TYPES.put(Date.class, "date");
+        BOUND_TYPES.put(Integer.class, "number");
+        BOUND_TYPES.put(Long.class, "number");
+        BOUND_TYPES.put(Double.class, "number");
+    }
+
+    private final Bson filter;
+    private final String description;
+
+    private IdRange(Bson filter, String description) {
+        this.filter = filter;
+        this.description = description;
+    }
+
+    static IdRange all() {
+        return new IdRange(new Document(), "every _id");
+    }
+
+    private static IdRange between(Object lower, Object upper) {
+        List<Bson> filters = new ArrayList<>();
+        if (lower != null) {
+            filters.add(gte("_id", lower));
+        }
+        if (upper != null) {
+            filters.add(lt("_id", upper));
+        }
+        return new IdRange(and(filters), "_id in [" + (lower == null ? "" : lower) + ", " + (upper == null ? "" : upper) + ")");
+    }
+
+    private static IdRange notOfType(String type) {
+        return new IdRange(not(type("_id", type)), "_id not of type " + type);
+    }
+
+    static IdRange fromJson(String json) {
+        return new IdRange(Document.parse(json), json);
+    }
+
+    /**
+     * Split a collection into {@code parts} ranges of about the same size, bounded by the quantiles of a random
+     * sample of its ids.
+     *
+     * @return a single range if the sampled ids are not all of the same sortable type
+     */
+    static List<IdRange> fromSample(List<Object> sampledIds, int parts) {
+        if (parts <= 1 || sampledIds.size() < parts) {
+            return Collections.singletonList(all());
+        }
+        String type = BOUND_TYPES.get(sampledIds.get(0).getClass());
+        if (type == null || !sampledIds.stream().allMatch(id -> type.equals(BOUND_TYPES.get(id.getClass())))) {
+            return Collections.singletonList(all());
+        }
+
+        List<Object> sortedIds = new ArrayList<>(sampledIds);
+        sortedIds.sort(IdRange::compare);
+        List<Object> bounds = new ArrayList<>();
+        for (int part = 1; part < parts; part++) {
+            Object bound = sortedIds.get(part * sortedIds.size() / parts);
+            if (bounds.isEmpty() || compare(bounds.get(bounds.size() - 1), bound) < 0) {
+                bounds.add(bound);
+            }
+        }
+
+        List<IdRange> ranges = new ArrayList<>();
+        Object lower = null;
+        for (Object bound : bounds) {
+            ranges.add(between(lower, bound));
+            lower = bound;
+        }
+        ranges.add(between(lower, null));
+        ranges.add(notOfType(type));
+        return ranges;
+    }
+
+    Bson filter() {
+        return filter;
+    }
+
+    /**
+     * @return the filter of the range in extended JSON, keeping the type of its bounds
+     */
+    String toJson() {
+        return filter.toBsonDocument(BsonDocument.class, MongoClient.getDefaultCodecRegistry()).toJson();
+    }
+
+    @Override
+    public String toString() {
+        return description;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compare(Object id, Object otherId) {
+        if (id instanceof Number) {
+            return Double.compare(((Number) id).doubleValue(), ((Number) otherId).doubleValue());
+        }
+        if (id instanceof String) {
+            return compareUtf8((String) id, (String) otherId);
+        }
+        return ((Comparable<Object>) id).compareTo(otherId);
+    }
+
+    /**
+     * MongoDB sorts strings on their UTF-8 bytes, which differs from {@link String#compareTo} for characters
+     * outside of the basic multilingual plane.
+     */
+    private static int compareUtf8(String id, String otherId) {
+        byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+        byte[] otherBytes = otherId.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < Math.min(bytes.length, otherBytes.length); i++) {
+            int comparison = Integer.compare(Byte.toUnsignedInt(bytes[i]), Byte.toUnsignedInt(otherBytes[i]));
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return Integer.compare(bytes.length, otherBytes.length);
+    }
+}
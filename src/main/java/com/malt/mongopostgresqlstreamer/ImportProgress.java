@@ -0,0 +1,121 @@
+package com.malt.mongopostgresqlstreamer;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.List;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Progress of the initial load kept in PostgreSQL: the {@code _id} ranges planned for each collection and whether
+ * they have been imported, then whether the constraints of each mapping have been added. Each part is marked as
+ * done in the transaction importing it, so that an interrupted initial load resumes with the parts not committed
+ * yet.
+ */
+@Service
+public class ImportProgress {
+
+    private static final String TABLE_NAME = "mongo_streamer_import_progress";
+    private static final String CONSTRAINTS = "constraints";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean resumable;
+    private final String identifier;
+    // qualified, the import transactions targeting another schema when importing into shadow tables
+    private String table;
+
+    @Autowired
+    ImportProgress(
+            JdbcTemplate jdbcTemplate,
+            @Value(value = "${mongo.connector.import.resumable:false}") boolean resumable,
+            @Value(value = CheckpointManager.IDENTIFIER) String identifier) {
+
+        this.jdbcTemplate = jdbcTemplate;
+        this.resumable = resumable;
+        this.identifier = identifier;
+    }
+
+    @PostConstruct
+    void createTable() {
+        if (isEnabled()) {
+            table = jdbcTemplate.queryForObject("SELECT current_schema()", String.class) + "." + TABLE_NAME;
+            jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + table + " (" +
+                    "identifier TEXT NOT NULL, target TEXT NOT NULL, part TEXT NOT NULL, done BOOLEAN NOT NULL, " +
+                    "PRIMARY KEY (identifier, target, part))");
+        }
+    }
+
+    boolean isEnabled() {
+        return resumable;
+    }
+
+    /**
+     * @return whether the tables of an initial load have been created and its parts planned
+     */
+    boolean isPlanned() {
+        return isEnabled() && jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM " + table + " WHERE identifier = ?", Long.class, identifier) > 0;
+    }
+
+    void clear() {
+        if (isEnabled()) {
+            jdbcTemplate.update("DELETE FROM " + table + " WHERE identifier = ?", identifier);
+        }
+    }
+
+    /**
+     * @param mappings the keys of the mappings of the collection
+     */
+    void plan(String namespace, List<IdRange> ranges, List<String> mappings) {
+        for (IdRange range : ranges) {
+            insert(namespace, range.toJson());
+        }
+        for (String mapping : mappings) {
+            insert(mapping, CONSTRAINTS);
+        }
+    }
+
+    /**
+     * @return the ranges of a collection not imported yet
+     */
+    List<IdRange> remainingRanges(String namespace) {
+        return jdbcTemplate.queryForList(
+                "SELECT part FROM " + table + " WHERE identifier = ? AND target = ? AND part <> ? AND NOT done",
+                String.class, identifier, namespace, CONSTRAINTS
+        ).stream().map(IdRange::fromJson).collect(toList());
+    }
+
+    /**
+     * Must be called within the transaction importing the range.
+     */
+    void rangeImported(String namespace, IdRange range) {
+        markAsDone(namespace, range.toJson());
+    }
+
+    boolean constraintsAdded(String mapping) {
+        return jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM " + table + " WHERE identifier = ? AND target = ? AND part = ? AND done",
+                Long.class, identifier, mapping, CONSTRAINTS) > 0;
+    }
+
+    /**
+     * Must be called within the transaction adding the constraints.
+     */
+    void markConstraintsAsAdded(String mapping) {
+        markAsDone(mapping, CONSTRAINTS);
+    }
+
+    private void insert(String target, String part) {
+        jdbcTemplate.update("INSERT INTO " + table + " (identifier, target, part, done) VALUES (?, ?, ?, FALSE)",
+                identifier, target, part);
+    }
+
+    private void markAsDone(String target, String part) {
+        jdbcTemplate.update("UPDATE " + table + " SET done = TRUE WHERE identifier = ? AND target = ? AND part = ?",
+                identifier, target, part);
+    }
+}
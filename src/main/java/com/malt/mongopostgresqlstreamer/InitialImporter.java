@@ -2,109 +2,370 @@ package com.malt.mongopostgresqlstreamer;
 
 import com.malt.mongopostgresqlstreamer.connectors.Connector;
 import com.malt.mongopostgresqlstreamer.model.DatabaseMapping;
-import com.malt.mongopostgresqlstreamer.model.FilterMapping;
 import com.malt.mongopostgresqlstreamer.model.FlattenMongoDocument;
 import com.malt.mongopostgresqlstreamer.model.TableMapping;
 import com.mongodb.MongoClient;
+import com.mongodb.MongoNamespace;
+import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
 import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Spliterator;
 import java.util.Spliterators;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
+import static com.mongodb.client.model.Aggregates.project;
+import static com.mongodb.client.model.Aggregates.sample;
+import static com.mongodb.client.model.Projections.include;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
 import static java.util.stream.Collectors.toList;
 
 @Service
 @Slf4j
 public class InitialImporter {
 
+    private static final int SAMPLED_IDS_PER_RANGE = 100;
+    private static final int PROGRESS_INTERVAL = 10000;
+
+    @Value(value = "${mongo.connector.import.workers:1}")
+    private int importWorkers;
+    @Value(value = "${mongo.connector.import.split.min.documents:1000000}")
+    private long splitMinDocuments;
+    @Value(value = "${mongo.connector.import.shadow:false}")
+    private boolean shadowImport;
+
     @Autowired
     private MappingsManager mappingsManager;
     @Autowired
     private MongoClient mongoClient;
     @Autowired
     private List<Connector> connectors;
+    @Autowired
+    private ImportProgress importProgress;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
 
     public void start() {
+        importProgress.clear();
+        if (shadowImport) {
+            connectors.forEach(Connector::createShadowSchema);
+        }
         createSchema();
-        populateData();
+        populateData(planRanges());
         addConstraints();
+        swapShadowTables();
+    }
+
+    /**
+     * Resume an interrupted initial load, importing the ranges not committed yet into the tables already created.
+     */
+    void resume() {
+        Map<String, List<IdRange>> remainingRanges = new LinkedHashMap<>();
+        for (String namespace : mappedCollections().keySet()) {
+            remainingRanges.put(namespace, importProgress.remainingRanges(namespace));
+        }
+        populateData(remainingRanges);
+        addConstraints();
+        swapShadowTables();
+    }
+
+    private Map<String, List<IdRange>> planRanges() {
+        Map<String, List<MappingRoute>> mappedCollections = mappedCollections();
+        Map<String, List<IdRange>> ranges = new LinkedHashMap<>();
+        for (String namespace : mappedCollections.keySet()) {
+            ranges.put(namespace, split(collection(namespace)));
+        }
+        // the initial load can only be resumed once every range is planned
+        inImportTransaction(() -> ranges.forEach((namespace, collectionRanges) -> {
+            if (importProgress.isEnabled()) {
+                List<String> mappings = mappedCollections.get(namespace).stream().map(MappingRoute::getKey).collect(toList());
+                importProgress.plan(namespace, collectionRanges, mappings);
+            }
+        }));
+        return ranges;
+    }
+
+    private void populateData(Map<String, List<IdRange>> ranges) {
+        Map<String, List<MappingRoute>> mappedCollections = mappedCollections();
+        List<Runnable> imports = new ArrayList<>();
+        ranges.forEach((namespace, collectionRanges) -> {
+            for (IdRange range : collectionRanges) {
+                imports.add(() -> inImportTransaction(() -> {
+                    importRange(namespace, mappedCollections.get(namespace), range);
+                    if (importProgress.isEnabled()) {
+                        importProgress.rangeImported(namespace, range);
+                    }
+                }));
+            }
+        });
+        runInParallel("Collection parts imported", imports);
+    }
+
+    /**
+     * A part of the import is done in a single transaction when the import is resumable, so that it is either
+     * committed and marked as done, or rolled back and done again on resume. It is also the case when importing
+     * into shadow tables, the connectors targeting them for the whole transaction.
+     */
+    private void inImportTransaction(Runnable runnable) {
+        if (!importProgress.isEnabled() && !shadowImport) {
+            runnable.run();
+            return;
+        }
+        transactionTemplate.execute(status -> {
+            if (shadowImport) {
+                connectors.forEach(Connector::useShadowSchema);
+            }
+            runnable.run();
+            return null;
+        });
+    }
+
+    /**
+     * Replace the current tables with the imported ones in a single transaction, readers seeing either the former
+     * tables or the new ones, never empty tables.
+     */
+    private void swapShadowTables() {
+        if (!shadowImport) {
+            return;
+        }
+        log.info("Swap the imported tables with the current ones");
+        transactionTemplate.execute(status -> {
+            for (List<MappingRoute> routes : mappedCollections().values()) {
+                for (MappingRoute route : routes) {
+                    for (Connector connector : connectors) {
+                        connector.swapShadowTables(route.getTableMapping().getMappingName(), route.getDatabaseMapping());
+                    }
+                }
+            }
+            return null;
+        });
+        connectors.forEach(Connector::dropShadowSchema);
     }
 
-    private void populateData() {
+    /**
+     * @return the routes of the mapped collections existing in MongoDB, per namespace
+     */
+    private Map<String, List<MappingRoute>> mappedCollections() {
+        Map<String, List<MappingRoute>> routes = new LinkedHashMap<>();
         for (DatabaseMapping databaseMapping : mappingsManager.mappingConfigs.getDatabaseMappings()) {
             MongoDatabase mongoDatabase = mongoClient.getDatabase(databaseMapping.getName());
             List<String> collectionNames = toStream(mongoDatabase.listCollectionNames().iterator()).collect(toList());
+            for (TableMapping tableMapping : databaseMapping.getTableMappings()) {
+                boolean needToBeImported = collectionNames.stream()
+                        .anyMatch(collectionIsMapped(tableMapping));
+                if (needToBeImported) {
+                    routes.computeIfAbsent(databaseMapping.getName() + "." + tableMapping.getSourceCollection(), notFound -> new ArrayList<>())
+                            .add(new MappingRoute(databaseMapping, tableMapping));
+                }
+            }
+        }
+        return routes;
+    }
 
-            for (Connector connector : connectors) {
-                for (TableMapping tableMapping : databaseMapping.getTableMappings()) {
-                    boolean needToBeImported = collectionNames.stream()
-                            .anyMatch(collectionIsMapped(tableMapping));
-                    if (needToBeImported) {
-                        String collectionName = tableMapping.getSourceCollection();
-                        String mappingName = tableMapping.getMappingName();
-                        connector.bulkInsert(
-                                mappingName,
-                                mongoDatabase.getCollection(collectionName).count(),
-                                toStream(
-                                        mongoDatabase.getCollection(collectionName)
-                                                .find()
-                                                .noCursorTimeout(true)
-                                                .iterator()
-                                )
-                                        .map(FlattenMongoDocument::fromDocument)
-                                        .filter(tableMapping.getFilters().stream().map(FilterMapping::apply).reduce(Predicate::or).orElse(t -> true)),
-                                databaseMapping
-                        );
+    private MongoCollection<Document> collection(String namespace) {
+        MongoNamespace mongoNamespace = new MongoNamespace(namespace);
+        return mongoClient.getDatabase(mongoNamespace.getDatabaseName()).getCollection(mongoNamespace.getCollectionName());
+    }
+
+    /**
+     * Split a collection of at least {@code mongo.connector.import.split.min.documents} documents into one
+     * {@code _id} range per import worker, so that it is not read by a single cursor.
+     */
+    private List<IdRange> split(MongoCollection<Document> collection) {
+        if (importWorkers <= 1) {
+            return singletonList(IdRange.all());
+        }
+        long estimatedDocuments = collection.estimatedDocumentCount();
+        if (estimatedDocuments < splitMinDocuments) {
+            return singletonList(IdRange.all());
+        }
+        List<Object> sampledIds = collection.aggregate(asList(
+                sample(importWorkers * SAMPLED_IDS_PER_RANGE),
+                project(include("_id"))
+        )).map(document -> document.get("_id")).into(new ArrayList<>());
+        List<IdRange> ranges = IdRange.fromSample(sampledIds, importWorkers);
+        log.info("{} (about {} documents) split into {} ranges : {}",
+                collection.getNamespace(), estimatedDocuments, ranges.size(), ranges);
+        return ranges;
+    }
+
+    /**
+     * Import the collections of several namespaces again, {@code onResynced} being called as soon as the import of
+     * a namespace is done. Each collection is imported into shadow tables, which then replace the current ones in a
+     * single transaction: the current tables are still read, and still written by the connectors, meanwhile.
+     */
+    void resync(List<String> namespaces, Consumer<String> onResynced) {
+        connectors.forEach(Connector::createShadowSchema);
+        List<Runnable> resyncs = new ArrayList<>();
+        for (String namespace : namespaces) {
+            resyncs.add(() -> {
+                resync(namespace);
+                onResynced.accept(namespace);
+            });
+        }
+        try {
+            runInParallel("Collections imported again", resyncs);
+        } finally {
+            connectors.forEach(Connector::dropShadowSchema);
+        }
+    }
+
+    /**
+     * Run independent imports on {@code mongo.connector.import.workers} threads. Each thread reads its own cursor
+     * and copies through its own PostgreSQL connection. The first failure interrupts the other imports.
+     */
+    void runInParallel(String progress, List<Runnable> imports) {
+        AtomicInteger done = new AtomicInteger();
+        Consumer<Runnable> run = runnable -> {
+            runnable.run();
+            log.info("{} : {}/{}", progress, done.incrementAndGet(), imports.size());
+        };
+        if (importWorkers <= 1) {
+            imports.forEach(run);
+            return;
+        }
+
+        AtomicInteger threads = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(
+                importWorkers,
+                runnable -> new Thread(runnable, "import-" + threads.incrementAndGet())
+        );
+        CompletionService<Void> completion = new ExecutorCompletionService<>(executor);
+        try {
+            for (Runnable runnable : imports) {
+                completion.submit(() -> run.accept(runnable), null);
+            }
+            // in completion order, so that a failure is not held back by the imports submitted before
+            for (int i = 0; i < imports.size(); i++) {
+                completion.take().get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Import interrupted", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException
+                    ? (RuntimeException) e.getCause()
+                    : new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void resync(String namespace) {
+        List<MappingRoute> routes = mappingsManager.routesFor(namespace);
+        transactionTemplate.execute(status -> {
+            connectors.forEach(Connector::useShadowSchema);
+            for (MappingRoute route : routes) {
+                for (Connector connector : connectors) {
+                    connector.createTable(route.getTableMapping().getMappingName(), route.getDatabaseMapping());
+                }
+            }
+            importRange(namespace, routes, IdRange.all());
+            for (MappingRoute route : routes) {
+                for (Connector connector : connectors) {
+                    connector.addConstraints(route.getTableMapping().getMappingName(), route.getDatabaseMapping());
+                }
+            }
+            return null;
+        });
+        transactionTemplate.execute(status -> {
+            for (MappingRoute route : routes) {
+                for (Connector connector : connectors) {
+                    connector.swapShadowTables(route.getTableMapping().getMappingName(), route.getDatabaseMapping());
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Read a range of a collection once, each document being inserted into every table and connector it is mapped
+     * to.
+     */
+    private void importRange(String namespace, List<MappingRoute> routes, IdRange range) {
+        MongoCollection<Document> collection = collection(namespace);
+        log.info("Starting bulk insert of {}, {}...", namespace, range);
+
+        long startTime = System.currentTimeMillis();
+        long documents = 0;
+        try (MongoCursor<Document> cursor = collection.find(range.filter()).noCursorTimeout(true).iterator()) {
+            while (cursor.hasNext()) {
+                FlattenMongoDocument document = FlattenMongoDocument.fromDocument(cursor.next());
+                for (MappingRoute route : routes) {
+                    if (route.accepts(document)) {
+                        for (Connector connector : connectors) {
+                            connector.addToBulkInsert(route.getTableMapping().getMappingName(), document, route.getDatabaseMapping());
+                        }
                     }
                 }
+                if (++documents % PROGRESS_INTERVAL == 0) {
+                    double processTimeInSeconds = (System.currentTimeMillis() - startTime) / 1000D;
+                    log.info("{} documents read from {} - speed : {}/s", documents, namespace, documents / processTimeInSeconds);
+                }
             }
         }
+        for (MappingRoute route : routes) {
+            for (Connector connector : connectors) {
+                connector.finishBulkInsert(route.getTableMapping().getMappingName(), route.getDatabaseMapping());
+            }
+        }
+        log.info("{}, {} was successfully imported ({} documents) !", namespace, range, documents);
     }
 
     @Transactional
     protected void createSchema() {
-        for (DatabaseMapping databaseMapping : mappingsManager.mappingConfigs.getDatabaseMappings()) {
-            MongoDatabase mongoDatabase = mongoClient.getDatabase(databaseMapping.getName());
-            List<String> collectionNames = toStream(mongoDatabase.listCollectionNames().iterator()).collect(toList());
-            for (Connector connector : connectors) {
-                for (TableMapping tableMapping : databaseMapping.getTableMappings()) {
-                    boolean needToBeImported = collectionNames
-                            .stream()
-                            .anyMatch(collectionIsMapped(tableMapping));
-                    if (needToBeImported) {
-                        connector.createTable(tableMapping.getMappingName(), databaseMapping);
+        inImportTransaction(() -> {
+            for (List<MappingRoute> routes : mappedCollections().values()) {
+                for (MappingRoute route : routes) {
+                    for (Connector connector : connectors) {
+                        connector.createTable(route.getTableMapping().getMappingName(), route.getDatabaseMapping());
                     }
                 }
             }
-        }
+        });
     }
 
     @Transactional
     protected void addConstraints() {
         log.info("Add constraints");
-        for (DatabaseMapping databaseMapping : mappingsManager.mappingConfigs.getDatabaseMappings()) {
-            MongoDatabase mongoDatabase = mongoClient.getDatabase(databaseMapping.getName());
-            List<String> collectionNames = toStream(mongoDatabase.listCollectionNames().iterator()).collect(toList());
-            for (Connector connector : connectors) {
-                for (TableMapping tableMapping : databaseMapping.getTableMappings()) {
-                    boolean needToBeImported = collectionNames
-                            .stream()
-                            .anyMatch(collectionIsMapped(tableMapping));
-                    if (needToBeImported) {
-                        connector.addConstraints(tableMapping.getMappingName(), databaseMapping);
-                    }
+        List<Runnable> constraints = new ArrayList<>();
+        for (List<MappingRoute> routes : mappedCollections().values()) {
+            for (MappingRoute route : routes) {
+                if (importProgress.isEnabled() && importProgress.constraintsAdded(route.getKey())) {
+                    continue;
                 }
+                constraints.add(() -> inImportTransaction(() -> {
+                    for (Connector connector : connectors) {
+                        connector.addConstraints(route.getTableMapping().getMappingName(), route.getDatabaseMapping());
+                    }
+                    if (importProgress.isEnabled()) {
+                        importProgress.markConstraintsAsAdded(route.getKey());
+                    }
+                }));
             }
         }
+        runInParallel("Tables with constraints", constraints);
     }
 
     private Predicate<String> collectionIsMapped(TableMapping tableMapping) {
@@ -0,0 +1,48 @@
+package com.malt.mongopostgresqlstreamer;
+
+import com.malt.mongopostgresqlstreamer.model.DatabaseMapping;
+import com.malt.mongopostgresqlstreamer.model.FilterMapping;
+import com.malt.mongopostgresqlstreamer.model.FlattenMongoDocument;
+import com.malt.mongopostgresqlstreamer.model.TableMapping;
+
+import java.util.function.Predicate;
+
+/**
+ * A table mapping fed by a namespace, with everything needed to apply its oplog entries computed once.
+ */
+class MappingRoute {
+
+    private final DatabaseMapping databaseMapping;
+    private final TableMapping tableMapping;
+    private final Predicate<FlattenMongoDocument> filters;
+    private final String key;
+
+    MappingRoute(DatabaseMapping databaseMapping, TableMapping tableMapping) {
+        this.databaseMapping = databaseMapping;
+        this.tableMapping = tableMapping;
+        this.filters = tableMapping.getFilters().stream()
+                .map(FilterMapping::apply)
+                .reduce(Predicate::or)
+                .orElse(x -> true);
+        this.key = databaseMapping.getName() + "." + tableMapping.getMappingName();
+    }
+
+    DatabaseMapping getDatabaseMapping() {
+        return databaseMapping;
+    }
+
+    TableMapping getTableMapping() {
+        return tableMapping;
+    }
+
+    /**
+     * @return the unique name of the destination mapping, {@code database.mappingName}
+     */
+    String getKey() {
+        return key;
+    }
+
+    boolean accepts(FlattenMongoDocument document) {
+        return filters.test(document);
+    }
+}
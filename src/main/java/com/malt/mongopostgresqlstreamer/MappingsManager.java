@@ -22,6 +22,7 @@ public class MappingsManager {
     private final String mappingFile;
 
     Mappings mappingConfigs;
+    private Map<String, List<MappingRoute>> routes = Collections.emptyMap();
 
     @Inject
     public MappingsManager(
@@ -35,6 +36,26 @@ public class MappingsManager {
     @PostConstruct
     public void read() {
         mappingConfigs = read(mappingFile);
+        routes = routesByNamespace(mappingConfigs);
+    }
+
+    /**
+     * @return the table mappings fed by a namespace ({@code database.collection}), none if it is not mapped
+     */
+    List<MappingRoute> routesFor(String namespace) {
+        return routes.getOrDefault(namespace, Collections.emptyList());
+    }
+
+    private static Map<String, List<MappingRoute>> routesByNamespace(Mappings mappingConfigs) {
+        Map<String, List<MappingRoute>> routes = new HashMap<>();
+        for (DatabaseMapping db : mappingConfigs.getDatabaseMappings()) {
+            for (TableMapping tableMapping : db.getTableMappings()) {
+                String namespace = db.getName() + "." + tableMapping.getSourceCollection();
+                routes.computeIfAbsent(namespace, notFound -> new ArrayList<>()).add(new MappingRoute(db, tableMapping));
+            }
+        }
+        routes.replaceAll((namespace, namespaceRoutes) -> Collections.unmodifiableList(namespaceRoutes));
+        return Collections.unmodifiableMap(routes);
     }
 
     Mappings read(String mappingFile) {
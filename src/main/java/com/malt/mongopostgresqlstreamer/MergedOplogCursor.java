@@ -0,0 +1,108 @@
+package com.malt.mongopostgresqlstreamer;
+
+import com.mongodb.ServerAddress;
+import com.mongodb.ServerCursor;
+import com.mongodb.client.MongoCursor;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Merges the oplogs of the shards of a cluster into a single stream ordered by timestamp, so that the changes of a
+ * document moved from a shard to another are still returned in order. An entry is only returned once every shard
+ * has been read past it, which idle shards tell with their periodic no-op entries. No-op entries are not returned.
+ */
+class MergedOplogCursor implements MongoCursor<Document> {
+
+    private final List<MongoCursor<Document>> cursors;
+    private final Document[] heads;
+    private Document next;
+
+    MergedOplogCursor(List<MongoCursor<Document>> cursors) {
+        this.cursors = cursors;
+        this.heads = new Document[cursors.size()];
+    }
+
+    @Override
+    public Document tryNext() {
+        if (next != null) {
+            Document document = next;
+            next = null;
+            return document;
+        }
+
+        while (true) {
+            int oldest = -1;
+            for (int shard = 0; shard < cursors.size(); shard++) {
+                if (heads[shard] == null) {
+                    heads[shard] = cursors.get(shard).tryNext();
+                }
+                if (heads[shard] == null) {
+                    // this shard may still return an older entry
+                    return null;
+                }
+                if (oldest < 0 || timestampOf(heads[shard]).compareTo(timestampOf(heads[oldest])) < 0) {
+                    oldest = shard;
+                }
+            }
+
+            Document document = heads[oldest];
+            heads[oldest] = null;
+            if (!"n".equals(document.getString("op"))) {
+                return document;
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (next == null) {
+            next = tryNext();
+            if (next == null && getServerCursor() == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Document next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Document document = next;
+        next = null;
+        return document;
+    }
+
+    /**
+     * @return {@code null} as soon as the cursor of a shard is dead, the merge cannot go on without it
+     */
+    @Override
+    public ServerCursor getServerCursor() {
+        ServerCursor serverCursor = null;
+        for (MongoCursor<Document> cursor : cursors) {
+            serverCursor = cursor.getServerCursor();
+            if (serverCursor == null) {
+                return null;
+            }
+        }
+        return serverCursor;
+    }
+
+    @Override
+    public ServerAddress getServerAddress() {
+        return cursors.get(0).getServerAddress();
+    }
+
+    @Override
+    public void close() {
+        cursors.forEach(MongoCursor::close);
+    }
+
+    private static BsonTimestamp timestampOf(Document document) {
+        return document.get("ts", BsonTimestamp.class);
+    }
+}
@@ -0,0 +1,67 @@
+package com.malt.mongopostgresqlstreamer;
+
+import org.bson.Document;
+
+import java.util.*;
+
+/**
+ * Collapses the oplog entries of a batch targeting the same document into the fewest entries giving the same
+ * final state. A removal discards every previous entry of its document but is always kept, even when the document
+ * was inserted within the batch: entries are replayed after a crash or an initial load, so the row may already
+ * exist. Updates are kept as they are: their lookups are already shared and their writes merged by
+ * {@link TableOperations}.
+ */
+class OperationCoalescer {
+
+    private OperationCoalescer() {
+    }
+
+    static List<Document> coalesce(List<Document> documents) {
+        Map<List<Object>, DocumentOperations> operationsPerDocument = new LinkedHashMap<>();
+        for (Document document : documents) {
+            Object documentId = documentIdOf(document);
+            List<Object> key = documentId == null
+                    ? Collections.singletonList(new Object())
+                    : Arrays.asList(document.getString("ns"), documentId);
+            operationsPerDocument.computeIfAbsent(key, notFound -> new DocumentOperations()).add(document);
+        }
+
+        List<Document> coalescedDocuments = new ArrayList<>(documents.size());
+        operationsPerDocument.values().forEach(operations -> coalescedDocuments.addAll(operations.entries));
+        return coalescedDocuments;
+    }
+
+    /**
+     * @return the {@code _id} of the document targeted by an oplog entry, {@code null} if it is unknown
+     */
+    static Object documentIdOf(Document document) {
+        Object documentKey = "u".equals(document.getString("op")) ? document.get("o2") : document.get("o");
+        return documentKey instanceof Map ? ((Map) documentKey).get("_id") : null;
+    }
+
+    private static class DocumentOperations {
+        private final List<Document> entries = new ArrayList<>();
+        private Document removal;
+
+        void add(Document document) {
+            switch (document.getString("op")) {
+                case "d":
+                    entries.clear();
+                    removal = document;
+                    entries.add(removal);
+                    break;
+                case "i":
+                    // the document did not exist before the batch or has been removed within it
+                    entries.clear();
+                    if (removal != null) {
+                        entries.add(removal);
+                    }
+                    entries.add(document);
+                    break;
+                default:
+                    entries.add(document);
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package com.malt.mongopostgresqlstreamer;
+
+import com.malt.mongopostgresqlstreamer.connectors.Connector;
+import com.malt.mongopostgresqlstreamer.model.FlattenMongoDocument;
+import com.malt.mongopostgresqlstreamer.model.TableMapping;
+import com.mongodb.MongoClient;
+import com.mongodb.MongoNamespace;
+import com.mongodb.client.MongoCollection;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.mongodb.client.model.Filters.in;
+import static java.util.Collections.emptyMap;
+
+@Service
+@Slf4j
+public class OplogApplier {
+
+    private static final int LOOKUP_CHUNK_SIZE = 1000;
+
+    @Value(value = "${mongo.connector.update.delta:false}")
+    private boolean deltaUpdates;
+
+    @Autowired
+    private MappingsManager mappingsManager;
+    @Autowired
+    private MongoClient mongoClient;
+    @Autowired
+    private List<Connector> connectors;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    @Autowired
+    private PostgreSqlCheckpointStore checkpointStore;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final Map<String, BsonTimestamp> resyncPoints = new ConcurrentHashMap<>();
+
+    /**
+     * Apply a batch of entries of a partition. When the checkpoint is stored in PostgreSQL, the batch and the
+     * position of the partition are written in a single transaction, and entries already applied are skipped.
+     */
+    void apply(List<Document> batch, int partition) {
+        if (!checkpointStore.isEnabled()) {
+            apply(batch);
+            return;
+        }
+
+        List<Document> notAppliedYet = checkpointStore.notAppliedYet(batch, partition);
+        if (notAppliedYet.isEmpty()) {
+            return;
+        }
+        BsonTimestamp appliedUpTo = notAppliedYet.get(notAppliedYet.size() - 1).get("ts", BsonTimestamp.class);
+        transactionTemplate.execute(status -> {
+            apply(notAppliedYet);
+            checkpointStore.write(partition, appliedUpTo);
+            return null;
+        });
+    }
+
+    private void apply(List<Document> batch) {
+        List<Entry> entries = new ArrayList<>(batch.size());
+        for (Document document : OperationCoalescer.coalesce(withoutResyncedEntries(batch))) {
+            Entry entry = new Entry(document, mappingsManager.routesFor(document.getString("ns")));
+            if ("u".equals(entry.operation) && !entry.delta.isPresent() && !entry.isReplacement()) {
+                meterRegistry.counter("streamer.update.delta.fallback").increment();
+            }
+            entries.add(entry);
+        }
+        Map<String, Map<Object, FlattenMongoDocument>> updatedDocuments = lookupUpdatedDocuments(entries);
+
+        Map<String, TableOperations> operationsPerMapping = new LinkedHashMap<>();
+        for (Entry entry : entries) {
+            collectOperation(entry, updatedDocuments, operationsPerMapping);
+        }
+
+        for (TableOperations tableOperations : operationsPerMapping.values()) {
+            connectors.forEach(tableOperations::applyTo);
+        }
+    }
+
+    /**
+     * Skip the entries of a namespace up to {@code resyncPoint}, its collection having been imported again since.
+     */
+    void skipUpTo(String namespace, BsonTimestamp resyncPoint) {
+        resyncPoints.put(namespace, resyncPoint);
+    }
+
+    /**
+     * Apply a chunk of the entries held back while their collection was imported again, in a single transaction.
+     * They are older than the positions already applied, which are left as they are.
+     */
+    void applyDeferred(List<Document> entries) {
+        transactionTemplate.execute(status -> {
+            apply(entries);
+            return null;
+        });
+    }
+
+    private List<Document> withoutResyncedEntries(List<Document> batch) {
+        if (resyncPoints.isEmpty()) {
+            return batch;
+        }
+        List<Document> entries = new ArrayList<>(batch.size());
+        for (Document document : batch) {
+            BsonTimestamp resyncPoint = resyncPoints.get(document.getString("ns"));
+            if (resyncPoint == null || document.get("ts", BsonTimestamp.class).compareTo(resyncPoint) > 0) {
+                entries.add(document);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Apply the entries of a MongoDB transaction in a single PostgreSQL transaction, so that none of its changes is
+     * visible before all of them are. Every partition must have been applied up to the transaction.
+     */
+    void applyAtomically(List<Document> transaction, int partitions) {
+        BsonTimestamp commit = transaction.get(0).get("ts", BsonTimestamp.class);
+        if (checkpointStore.isEnabled() && checkpointStore.isApplied(commit)) {
+            return;
+        }
+        transactionTemplate.execute(status -> {
+            apply(transaction);
+            if (checkpointStore.isEnabled()) {
+                checkpointStore.writeAll(partitions, commit);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Fetch the current version of every document updated in the batch whose update can neither be skipped nor
+     * applied as a delta, with one query per collection, and flatten it once. Documents that no longer exist are
+     * mapped to {@code null}.
+     */
+    private Map<String, Map<Object, FlattenMongoDocument>> lookupUpdatedDocuments(List<Entry> entries) {
+        Map<String, Set<Object>> updatedIdsPerNamespace = new LinkedHashMap<>();
+        for (Entry entry : entries) {
+            if ("u".equals(entry.operation) && needsLookup(entry)) {
+                updatedIdsPerNamespace.computeIfAbsent(entry.namespace, notFound -> new LinkedHashSet<>())
+                        .add(entry.documentIdToUpdate());
+            }
+        }
+
+        Map<String, Map<Object, FlattenMongoDocument>> updatedDocuments = new HashMap<>();
+        updatedIdsPerNamespace.forEach((namespace, ids) -> updatedDocuments.put(namespace, findByIds(namespace, ids)));
+        return updatedDocuments;
+    }
+
+    private boolean needsLookup(Entry entry) {
+        if (!entry.delta.isPresent()) {
+            return !entry.isReplacement();
+        }
+        UpdateDelta delta = entry.delta.get();
+        return entry.routes.stream()
+                .map(MappingRoute::getTableMapping)
+                .filter(delta::touches)
+                .anyMatch(tableMapping -> !deltaUpdates || !delta.toPatch(tableMapping).isPresent());
+    }
+
+    private Map<Object, FlattenMongoDocument> findByIds(String namespace, Set<Object> ids) {
+        MongoNamespace mongoNamespace = new MongoNamespace(namespace);
+        MongoCollection<Document> collection = mongoClient.getDatabase(mongoNamespace.getDatabaseName())
+                .getCollection(mongoNamespace.getCollectionName());
+
+        Map<Object, FlattenMongoDocument> documentsById = new HashMap<>();
+        ids.forEach(id -> documentsById.put(id, null));
+        List<Object> idsToFind = new ArrayList<>(ids);
+        for (int from = 0; from < idsToFind.size(); from += LOOKUP_CHUNK_SIZE) {
+            List<Object> chunk = idsToFind.subList(from, Math.min(from + LOOKUP_CHUNK_SIZE, idsToFind.size()));
+            for (Document document : collection.find(in("_id", chunk)).into(new ArrayList<>())) {
+                documentsById.put(document.get("_id"), FlattenMongoDocument.fromDocument(document));
+            }
+        }
+        return documentsById;
+    }
+
+    private void collectOperation(
+            Entry entry,
+            Map<String, Map<Object, FlattenMongoDocument>> updatedDocuments,
+            Map<String, TableOperations> operationsPerMapping) {
+
+        for (MappingRoute route : entry.routes) {
+            log.debug("Operation {} detected on {}", entry.operation, entry.namespace);
+            TableMapping tableMapping = route.getTableMapping();
+            TableOperations tableOperations = operationsPerMapping.computeIfAbsent(
+                    route.getKey(),
+                    notFound -> new TableOperations(route.getDatabaseMapping(), tableMapping)
+            );
+
+            switch (entry.operation) {
+                case "i":
+                    if (route.accepts(entry.flattened())) {
+                        tableOperations.upsert(entry.flattened());
+                    }
+                    break;
+                case "u":
+                    if (entry.delta.isPresent() && !entry.delta.get().touches(tableMapping)) {
+                        log.trace("Update of {} does not modify any mapped field, skipped", entry.namespace);
+                        break;
+                    }
+                    Map<Object, FlattenMongoDocument> lookedUpDocuments = updatedDocuments.getOrDefault(entry.namespace, emptyMap());
+                    if (!lookedUpDocuments.containsKey(entry.documentIdToUpdate())) {
+                        // every update of this document in the batch is either a delta or a replacement
+                        if (entry.delta.isPresent()) {
+                            entry.delta.get().toPatch(tableMapping).ifPresent(tableOperations::patch);
+                        } else if (route.accepts(entry.flattened())) {
+                            tableOperations.upsert(entry.flattened());
+                        }
+                        break;
+                    }
+                    FlattenMongoDocument flattenMongoDocument = lookedUpDocuments.get(entry.documentIdToUpdate());
+                    if (flattenMongoDocument != null && route.accepts(flattenMongoDocument)) {
+                        tableOperations.upsert(flattenMongoDocument);
+                    }
+                    break;
+                case "d":
+                    tableOperations.remove(entry.flattened());
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * An oplog entry resolved once for all the mappings of its collection. Its flattened {@code o} is shared by
+     * these mappings and must not be modified.
+     */
+    private static class Entry {
+        private final Document document;
+        private final String namespace;
+        private final String operation;
+        private final List<MappingRoute> routes;
+        private final Optional<UpdateDelta> delta;
+        private FlattenMongoDocument flattened;
+
+        Entry(Document document, List<MappingRoute> routes) {
+            this.document = document;
+            this.namespace = document.getString("ns");
+            this.operation = document.getString("op");
+            this.routes = routes;
+            this.delta = "u".equals(operation) ? UpdateDelta.of(document) : Optional.empty();
+        }
+
+        Object documentIdToUpdate() {
+            return ((Map) document.get("o2")).get("_id");
+        }
+
+        /**
+         * A replacement carries the whole new document, as well as the updates read from a change stream.
+         */
+        boolean isReplacement() {
+            return ((Document) document.get("o")).keySet().stream().noneMatch(key -> key.startsWith("$"));
+        }
+
+        FlattenMongoDocument flattened() {
+            if (flattened == null) {
+                flattened = FlattenMongoDocument.fromDocument((Document) document.get("o"));
+            }
+            return flattened;
+        }
+    }
+}
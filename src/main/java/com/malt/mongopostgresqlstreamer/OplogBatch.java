@@ -0,0 +1,54 @@
+package com.malt.mongopostgresqlstreamer;
+
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Oplog entries waiting to be applied together. A batch is ready once it holds {@code maxSize} entries or once
+ * its first entry has waited for {@code linger} milliseconds.
+ */
+class OplogBatch {
+
+    private final int maxSize;
+    private final long linger;
+    private final List<Document> documents = new ArrayList<>();
+
+    private long firstAddedAt;
+
+    OplogBatch(int maxSize, long linger) {
+        this.maxSize = Math.max(1, maxSize);
+        this.linger = linger;
+    }
+
+    void add(Document document) {
+        if (documents.isEmpty()) {
+            firstAddedAt = System.currentTimeMillis();
+        }
+        documents.add(document);
+    }
+
+    boolean isReady() {
+        if (documents.isEmpty()) {
+            return false;
+        }
+        return documents.size() >= maxSize || System.currentTimeMillis() - firstAddedAt >= linger;
+    }
+
+    boolean isEmpty() {
+        return documents.isEmpty();
+    }
+
+    List<Document> getDocuments() {
+        return documents;
+    }
+
+    Document last() {
+        return documents.get(documents.size() - 1);
+    }
+
+    void clear() {
+        documents.clear();
+    }
+}
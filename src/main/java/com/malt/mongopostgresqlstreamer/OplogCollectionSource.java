@@ -0,0 +1,60 @@
+package com.malt.mongopostgresqlstreamer;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.BsonDocument;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.util.Optional;
+
+/**
+ * Tails {@code local.oplog.rs} directly.
+ */
+@Service
+@Slf4j
+@ConditionalOnProperty(name = "mongo.connector.source", havingValue = "oplog", matchIfMissing = true)
+public class OplogCollectionSource implements OplogSource {
+
+    @Value(value = "${mongo.connector.oplog.batch.size:0}")
+    private int cursorBatchSize;
+
+    @Value(value = "${mongo.connector.oplog.await.time:0}")
+    private long maxAwaitTime;
+
+    @Autowired
+    private MappingsManager mappingsManager;
+    @Autowired
+    private CheckpointManager checkpointManager;
+    @Autowired
+    @Qualifier("oplog")
+    private MongoDatabase oplog;
+
+    @Override
+    public MongoCursor<Document> open(Optional<BsonTimestamp> checkpoint, Optional<BsonDocument> resumeToken) {
+        MongoCollection<Document> oplog = this.oplog.getCollection("oplog.rs");
+        if (checkpoint.isPresent() && !OplogQuery.covers(oplog, checkpoint.get())) {
+            log.warn("Last known oplog is not in the oplog anymore, the oplog is read from its oldest entry");
+            checkpoint = Optional.empty();
+        }
+        OplogQuery query = new OplogQuery(mappingsManager.mappedNamespaces(), cursorBatchSize, maxAwaitTime, false);
+        return query.tail(oplog, checkpoint).iterator();
+    }
+
+    @Override
+    public boolean covers(BsonTimestamp checkpoint) {
+        return OplogQuery.covers(oplog.getCollection("oplog.rs"), checkpoint);
+    }
+
+    @Override
+    public BsonTimestamp lastTimestamp() {
+        return checkpointManager.getLastOplog();
+    }
+}
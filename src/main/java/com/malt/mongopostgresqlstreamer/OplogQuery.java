@@ -0,0 +1,89 @@
+package com.malt.mongopostgresqlstreamer;
+
+import com.mongodb.CursorType;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static com.mongodb.client.model.Filters.*;
+import static com.mongodb.client.model.Projections.include;
+import static com.mongodb.client.model.Sorts.ascending;
+
+/**
+ * Tailable query on an oplog, returning the changes of the mapped collections and the transactions.
+ */
+class OplogQuery {
+
+    private final List<String> mappedNamespaces;
+    private final int cursorBatchSize;
+    private final long maxAwaitTime;
+    private final boolean withNoops;
+
+    /**
+     * @param withNoops whether no-op entries are returned too, e.g. the ones periodically written by every shard of a
+     *                  cluster, telling how far an idle oplog has been read
+     */
+    OplogQuery(List<String> mappedNamespaces, int cursorBatchSize, long maxAwaitTime, boolean withNoops) {
+        this.mappedNamespaces = mappedNamespaces;
+        this.cursorBatchSize = cursorBatchSize;
+        this.maxAwaitTime = maxAwaitTime;
+        this.withNoops = withNoops;
+    }
+
+    FindIterable<Document> tail(MongoCollection<Document> oplog, Optional<BsonTimestamp> checkpoint) {
+        FindIterable<Document> documents = oplog.find(oplogfilters(checkpoint))
+                .projection(include("ts", "op", "ns", "o", "o2", "lsid", "txnNumber"))
+                .cursorType(CursorType.TailableAwait)
+                .noCursorTimeout(true);
+        if (checkpoint.isPresent()) {
+            // seek to the checkpoint instead of scanning the oplog from its beginning
+            documents.oplogReplay(true);
+        }
+        if (cursorBatchSize > 0) {
+            documents.batchSize(cursorBatchSize);
+        }
+        if (maxAwaitTime > 0) {
+            documents.maxAwaitTime(maxAwaitTime, TimeUnit.MILLISECONDS);
+        }
+        return documents;
+    }
+
+    /**
+     * Compare the checkpoint with the oldest entry of the oplog, rather than looking it up, which would scan the
+     * oplog.
+     *
+     * @return whether every entry after the checkpoint is still in the oplog
+     */
+    static boolean covers(MongoCollection<Document> oplog, BsonTimestamp checkpoint) {
+        Document oldest = oplog.find().sort(ascending("$natural")).projection(include("ts")).first();
+        return oldest != null && oldest.get("ts", BsonTimestamp.class).compareTo(checkpoint) <= 0;
+    }
+
+    private Bson oplogfilters(Optional<BsonTimestamp> checkpoint) {
+        Bson entries = or(
+                and(in("ns", mappedNamespaces), in("op", "d", "u", "i")),
+                transactions());
+        if (withNoops) {
+            entries = or(entries, eq("op", "n"));
+        }
+        Bson changes = and(exists("fromMigrate", false), entries);
+
+        return checkpoint.map(bsonTimestamp -> and(gt("ts", bsonTimestamp), changes))
+                .orElse(changes);
+    }
+
+    /**
+     * Transactions are logged as commands on {@code admin.$cmd}, their changes may target any namespace.
+     */
+    private Bson transactions() {
+        return and(
+                eq("op", "c"),
+                or(exists("o.applyOps"), exists("o.commitTransaction"), exists("o.abortTransaction")));
+    }
+}
@@ -0,0 +1,32 @@
+package com.malt.mongopostgresqlstreamer;
+
+import com.mongodb.client.MongoCursor;
+import org.bson.BsonDocument;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+
+import java.util.Optional;
+
+/**
+ * Where the changes of the mapped collections are read from. Whatever the source, changes are returned as oplog
+ * entries ({@code ts}, {@code op}, {@code ns}, {@code o} and {@code o2} fields), transactions possibly as
+ * {@code c} entries, and the cursor is dead once its server cursor is gone.
+ */
+public interface OplogSource {
+
+    /**
+     * @param resumeToken the resume token of the last applied change, for the sources resuming right after it
+     */
+    MongoCursor<Document> open(Optional<BsonTimestamp> checkpoint, Optional<BsonDocument> resumeToken);
+
+    /**
+     * @return whether every change after the checkpoint can still be read
+     */
+    boolean covers(BsonTimestamp checkpoint);
+
+    /**
+     * @return a timestamp such that every change after it is read by a cursor opened from it, taken before an
+     * initial import
+     */
+    BsonTimestamp lastTimestamp();
+}
@@ -1,182 +1,293 @@
 package com.malt.mongopostgresqlstreamer;
 
-import com.malt.mongopostgresqlstreamer.connectors.Connector;
-import com.malt.mongopostgresqlstreamer.model.FilterMapping;
-import com.malt.mongopostgresqlstreamer.model.FlattenMongoDocument;
-import com.malt.mongopostgresqlstreamer.model.TableMapping;
-import com.mongodb.CursorType;
-import com.mongodb.MongoClient;
-import com.mongodb.MongoQueryException;
-import com.mongodb.client.FindIterable;
-import com.mongodb.client.MongoCollection;
+import com.mongodb.MongoServerException;
+import com.mongodb.MongoSocketException;
+import com.mongodb.MongoTimeoutException;
 import com.mongodb.client.MongoCursor;
-import com.mongodb.client.MongoDatabase;
 import lombok.extern.slf4j.Slf4j;
+import org.bson.BsonDocument;
 import org.bson.BsonTimestamp;
 import org.bson.Document;
-import org.bson.conversions.Bson;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
-import java.util.function.Predicate;
-
-import static com.mongodb.client.model.Filters.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
 
 @Service
 @Slf4j
 public class OplogStreamer {
 
-    @Value(value = "${mongo.connector.identifier:streamer}")
+    private static final long INITIAL_RECONNECT_DELAY = 1000;
+    // CappedPositionLost, ChangeStreamFatalError, ChangeStreamHistoryLost
+    private static final List<Integer> HISTORY_LOST_CODES = Arrays.asList(136, 280, 286);
+
+    @Value(value = CheckpointManager.IDENTIFIER)
     private String identifier;
 
     @Value(value = "${mongo.database:test}")
     private String dbName;
 
+    @Value(value = "${mongo.connector.batch.size:1}")
+    private int batchSize;
+
+    @Value(value = "${mongo.connector.batch.linger:0}")
+    private long batchLinger;
+
+    @Value(value = "${mongo.connector.apply.workers:1}")
+    private int applyWorkers;
+
+    @Value(value = "${mongo.connector.oplog.readahead:0}")
+    private int readAhead;
+
+    @Value(value = "${mongo.connector.reconnect.max.delay:60000}")
+    private long maxReconnectDelay;
+
+    // where the oplog is reopened from when the cursor is lost, every entry up to it has been applied
+    private final AtomicReference<BsonTimestamp> resumePosition = new AtomicReference<>();
+    // along with the resume position, for the change streams
+    private final AtomicReference<BsonDocument> resumeToken = new AtomicReference<>();
+
+    @Autowired
+    private CheckpointManager checkpointManager;
     @Autowired
     private MappingsManager mappingsManager;
     @Autowired
-    private CheckpointManager checkpointManager;
+    private OplogSource oplogSource;
     @Autowired
-    @Qualifier("oplog")
-    private MongoDatabase oplog;
+    private OplogApplier oplogApplier;
     @Autowired
-    private MongoClient mongoClient;
+    private PostgreSqlCheckpointStore checkpointStore;
     @Autowired
-    private List<Connector> connectors;
+    private GapRecovery gapRecovery;
 
     void watchFromCheckpoint(Optional<BsonTimestamp> checkpoint) {
+        if (checkpointStore.isEnabled()) {
+            checkpointStore.load(Math.max(1, applyWorkers));
+        }
+        PartitionedApplier partitionedApplier = applyWorkers > 1
+                ? new PartitionedApplier(oplogApplier, applyWorkers, batchSize, batchLinger)
+                : null;
+        try {
+            watchFromCheckpoint(checkpoint, partitionedApplier);
+        } finally {
+            if (partitionedApplier != null) {
+                partitionedApplier.close();
+            }
+        }
+    }
+
+    private void watchFromCheckpoint(Optional<BsonTimestamp> checkpoint, PartitionedApplier partitionedApplier) {
         int watches = 1;
+        int failures = 0;
+        boolean historyLost = false;
+        resumePosition.set(checkpoint.orElse(null));
+        resumeToken.set(checkpointManager.getLastResumeToken().orElse(null));
 
         while (true) {
             log.info("Start watching the oplog ({})...", watches++);
+            BsonTimestamp openedFrom = resumePosition.get();
+            if (historyLost || (openedFrom != null && !oplogSource.covers(openedFrom))) {
+                // the position is gone, read from where the collections are imported again instead
+                historyLost = false;
+                openedFrom = gapRecovery.start();
+                resumePosition.set(openedFrom);
+                resumeToken.set(null);
+            }
 
-            try (MongoCursor<Document> documents = oplogDocuments(checkpoint).iterator()) {
-                documents.forEachRemaining(document -> {
-                    BsonTimestamp timestamp = processOperation(document);
-                    checkpointManager.keep(timestamp);
-                });
-            } catch (MongoQueryException e) {
-                String msg = e.getErrorMessage();
-                if (msg.contains("CappedPositionLost")
-                        || msg.contains("MongoCursorNotFoundException")) {
-                    int numberOfSecondsToWait = 1;
-                    log.info("Cursor lost, retrying in {}s", numberOfSecondsToWait, e);
-
-                    // wait a bit so that we don't loop too fast in case that code generates an infinite loop
-                    try {
-                        Thread.sleep(numberOfSecondsToWait * 1000);
-                    } catch (InterruptedException ex) {
-                        Thread.currentThread().interrupt();
-                        return;
-                    }
+            try (MongoCursor<Document> documents = openCursor(Optional.ofNullable(openedFrom), Optional.ofNullable(resumeToken.get()))) {
+                TransactionAssembler transactions = new TransactionAssembler(
+                        namespace -> !mappingsManager.routesFor(namespace).isEmpty());
+                if (partitionedApplier != null) {
+                    applyInParallel(documents, transactions, partitionedApplier);
                 } else {
-                    throw e;
+                    applyInOrder(documents, transactions);
+                }
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+            } catch (MongoServerException | MongoSocketException | MongoTimeoutException e) {
+                if (e instanceof MongoServerException) {
+                    MongoServerException serverException = (MongoServerException) e;
+                    if (isHistoryLost(serverException)) {
+                        historyLost = true;
+                    } else if (!isCursorLost(serverException)) {
+                        throw e;
+                    }
+                }
+                if (!Objects.equals(openedFrom, resumePosition.get())) {
+                    // entries were applied since the last reconnection, this is a new failure
+                    failures = 0;
+                }
+                long delay = reconnectDelay(++failures);
+                log.info("Cursor lost, resuming from {} in {}ms", resumePosition.get(), delay, e);
+
+                // wait a bit so that we don't loop too fast in case that code generates an infinite loop
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
                 }
             }
         }
     }
 
-    private FindIterable<Document> oplogDocuments(Optional<BsonTimestamp> checkpoint) {
-        MongoCollection<Document> oplog = this.oplog.getCollection("oplog.rs");
-        if (checkpoint.isPresent()) {
-            Document lastKnownOplog = oplog.find(eq("ts", checkpoint.get())).first();
-            if (lastKnownOplog == null) {
-                log.error("Last known oplog is not in the oplog anymore. The watch will starts from first " +
-                        "oplog but you should consider relaunch a reimport");
-                checkpoint = Optional.empty();
+    private static boolean isCursorLost(MongoServerException e) {
+        String msg = e.getMessage();
+        return msg.contains("CappedPositionLost") || msg.contains("MongoCursorNotFoundException");
+    }
+
+    /**
+     * The position the oplog or the change stream was opened from has rolled off the oplog.
+     */
+    private static boolean isHistoryLost(MongoServerException e) {
+        return HISTORY_LOST_CODES.contains(e.getCode());
+    }
+
+    /**
+     * Exponential backoff with jitter, so that several streamers do not reconnect all at once.
+     */
+    private long reconnectDelay(int failures) {
+        long delay = Math.min(maxReconnectDelay, INITIAL_RECONNECT_DELAY << Math.min(failures - 1, 20));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    private MongoCursor<Document> openCursor(Optional<BsonTimestamp> checkpoint, Optional<BsonDocument> token) {
+        MongoCursor<Document> documents = oplogSource.open(checkpoint, token);
+        return readAhead > 0 ? new ReadAheadCursor(documents, readAhead) : documents;
+    }
+
+    private void applyInOrder(MongoCursor<Document> documents, TransactionAssembler transactions) {
+        OplogBatch batch = new OplogBatch(batchSize, batchLinger);
+        while (!Thread.currentThread().isInterrupted()) {
+            Document document = documents.tryNext();
+            if (document != null) {
+                if (TransactionAssembler.isTransaction(document)) {
+                    List<Document> transaction = transactions.expand(document);
+                    transaction.removeIf(gapRecovery::defers);
+                    if (!transaction.isEmpty()) {
+                        // changes read before the transaction are applied first
+                        apply(batch, transactions);
+                        oplogApplier.applyAtomically(transaction, 1);
+                        keepCheckpoint(document, transactions);
+                    }
+                } else if (!gapRecovery.defers(document)) {
+                    batch.add(document);
+                }
+            } else if (documents.getServerCursor() == null) {
+                // the tailable cursor is dead, a new one has to be opened
+                apply(batch, transactions);
+                return;
+            }
+
+            if (batch.isReady()) {
+                apply(batch, transactions);
+            }
+
+            if (gapRecovery.hasReleasableEntries()) {
+                apply(batch, transactions);
+                gapRecovery.releaseDeferredEntries(oplogApplier::applyDeferred);
             }
         }
-        return oplog.find(oplogfilters(checkpoint)).cursorType(CursorType.TailableAwait).noCursorTimeout(true);
     }
 
-    @Transactional
-    BsonTimestamp processOperation(Document document) {
-        String namespace = document.getString("ns");
-        String[] databaseAndCollection = namespace.split("\\.");
-        String collection = databaseAndCollection[1];
-        String database = databaseAndCollection[0];
-        String operation = document.getString("op");
-        BsonTimestamp timestamp = document.get("ts", BsonTimestamp.class);
-
-        mappingsManager.mappingConfigs.databaseMappingFor(database).ifPresent(mappings -> {
-            MongoDatabase mongoDb = mongoClient.getDatabase(database);
-            List<TableMapping> tableMappings = mappings.getBySourceName(collection);
-            tableMappings.forEach(tableMapping -> {
-                log.debug("Operation {} detected on {}", operation, namespace);
-                Predicate<FlattenMongoDocument> mappingFilters = tableMapping.getFilters().stream()
-                        .map(FilterMapping::apply)
-                        .reduce(Predicate::or)
-                        .orElse(x -> true);
-
-                switch (operation) {
-                    case "i":
-                        FlattenMongoDocument newDocument = FlattenMongoDocument.fromDocument((Document) document.get("o"));
-                        if (mappingFilters.test(newDocument)) {
-                            connectors.forEach(connector ->
-                                    connector.insert(
-                                            tableMapping.getMappingName(),
-                                            newDocument,
-                                            mappings
-                                    )
-                            );
-                        }
-                        break;
-                    case "u":
-                        Map documentIdToUpdate = (Map) document.get("o2");
-                        Document updatedDocument = mongoDb.getCollection(tableMapping.getSourceCollection())
-                                .find(eq("_id", documentIdToUpdate.get("_id")))
-                                .first();
-                        if (updatedDocument != null) {
-                            FlattenMongoDocument flattenMongoDocument = FlattenMongoDocument.fromDocument(updatedDocument);
-                            if (mappingFilters.test(flattenMongoDocument)) {
-                                connectors.forEach(connector ->
-                                        connector.update(
-                                                tableMapping.getMappingName(),
-                                                flattenMongoDocument,
-                                                mappings
-                                        )
-                                );
-                            }
+    private void apply(OplogBatch batch, TransactionAssembler transactions) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        oplogApplier.apply(batch.getDocuments(), 0);
+        keepCheckpoint(batch.last(), transactions);
+        batch.clear();
+    }
+
+    private void applyInParallel(
+            MongoCursor<Document> documents,
+            TransactionAssembler transactions,
+            PartitionedApplier partitionedApplier) {
+
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Document document = documents.tryNext();
+                if (document != null) {
+                    if (TransactionAssembler.isTransaction(document)) {
+                        List<Document> transaction = transactions.expand(document);
+                        transaction.removeIf(gapRecovery::defers);
+                        if (!transaction.isEmpty()) {
+                            // a transaction may touch any partition, the workers have to be done first
+                            partitionedApplier.drain();
+                            oplogApplier.applyAtomically(transaction, partitionedApplier.partitions());
+                            keepCheckpoint(document, transactions);
                         }
-                        break;
-                    case "d":
-                        Document documentIdToRemove = (Document) document.get("o");
-                        connectors.forEach(connector ->
-                                connector.remove(
-                                        tableMapping.getMappingName(),
-                                        FlattenMongoDocument.fromDocument(documentIdToRemove),
-                                        mappings
-                                )
-                        );
-                        break;
-                    default:
-                        break;
+                    } else if (!gapRecovery.defers(document)) {
+                        partitionedApplier.dispatch(document);
+                    }
+                } else if (documents.getServerCursor() == null) {
+                    // the tailable cursor is dead, a new one has to be opened
+                    break;
                 }
-            });
 
-        });
+                if (gapRecovery.hasReleasableEntries()) {
+                    // later entries of the same documents may already be dispatched
+                    partitionedApplier.drain();
+                    gapRecovery.releaseDeferredEntries(oplogApplier::applyDeferred);
+                }
 
-        return timestamp;
+                Optional<Document> appliedUpTo = partitionedApplier.appliedUpTo();
+                if (appliedUpTo.isPresent()) {
+                    keepCheckpoint(appliedUpTo.get(), transactions);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            // keep the entries applied before the failure, without hiding it
+            try {
+                drain(partitionedApplier, transactions);
+            } catch (RuntimeException drainFailure) {
+                e.addSuppressed(drainFailure);
+            }
+            throw e;
+        }
+        // the cursor is reopened after the entries applied
+        drain(partitionedApplier, transactions);
     }
 
-    private Bson oplogfilters(Optional<BsonTimestamp> checkpoint) {
-        return checkpoint.map(bsonTimestamp -> and(
-                in("ns", mappingsManager.mappedNamespaces()),
-                gt("ts", bsonTimestamp),
-                exists("fromMigrate", false),
-                in("op", "d", "u", "i")))
-
-                .orElseGet(() -> and(
-                        in("ns", mappingsManager.mappedNamespaces()),
-                        exists("fromMigrate", false),
-                        in("op", "d", "u", "i")));
+    private void drain(PartitionedApplier partitionedApplier, TransactionAssembler transactions) {
+        try {
+            partitionedApplier.drain().ifPresent(appliedUpTo -> keepCheckpoint(appliedUpTo, transactions));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
+    /**
+     * The checkpoint and the resume position do not move while a transaction is partially read, so that its first
+     * entries are read again after a restart. The checkpoint does not move either while recovering from an oplog
+     * gap, the recovery being started again after a restart. The resume token of a change stream is the one of the
+     * last applied entry, the changes of a transaction sharing the same timestamp.
+     */
+    private void keepCheckpoint(Document lastApplied, TransactionAssembler transactions) {
+        if (transactions.hasPendingTransaction()) {
+            return;
+        }
+        BsonTimestamp timestamp = timestampOf(lastApplied);
+        BsonDocument appliedResumeToken = lastApplied.get("resumeToken", BsonDocument.class);
+        resumePosition.set(timestamp);
+        if (appliedResumeToken != null) {
+            resumeToken.set(appliedResumeToken);
+        }
+        if (!gapRecovery.inProgress()) {
+            checkpointManager.keepEventually(timestamp, appliedResumeToken);
+        }
+    }
 
+    private static BsonTimestamp timestampOf(Document document) {
+        return document.get("ts", BsonTimestamp.class);
+    }
 }
@@ -0,0 +1,131 @@
+package com.malt.mongopostgresqlstreamer;
+
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Applies oplog entries on several worker threads. Entries are partitioned on their namespace and document id,
+ * so that all the changes of a document are applied in order by the same worker while different documents are
+ * applied concurrently.
+ */
+@Slf4j
+class PartitionedApplier implements AutoCloseable {
+
+    private static final long IDLE_POLL_TIMEOUT = 1000;
+    private static final long DISPATCH_TIMEOUT = 100;
+
+    private final OplogApplier oplogApplier;
+    private final int batchSize;
+    private final long batchLinger;
+
+    private final List<BlockingQueue<Document>> queues = new ArrayList<>();
+    private final List<Thread> workers = new ArrayList<>();
+    private final AppliedTimestamps appliedTimestamps = new AppliedTimestamps();
+    private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+
+    PartitionedApplier(OplogApplier oplogApplier, int numberOfWorkers, int batchSize, long batchLinger) {
+        this.oplogApplier = oplogApplier;
+        this.batchSize = batchSize;
+        this.batchLinger = batchLinger;
+
+        int queueCapacity = Math.max(1000, 2 * batchSize);
+        for (int partition = 0; partition < numberOfWorkers; partition++) {
+            BlockingQueue<Document> queue = new ArrayBlockingQueue<>(queueCapacity);
+            int workerPartition = partition;
+            Thread worker = new Thread(() -> applyFrom(queue, workerPartition), "oplog-apply-" + partition);
+            queues.add(queue);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    int partitions() {
+        return queues.size();
+    }
+
+    void dispatch(Document document) throws InterruptedException {
+        BlockingQueue<Document> queue = queues.get(partitionOf(document));
+        appliedTimestamps.dispatched(document);
+        while (!queue.offer(document, DISPATCH_TIMEOUT, MILLISECONDS)) {
+            rethrowWorkerFailure();
+        }
+        rethrowWorkerFailure();
+    }
+
+    /**
+     * @return the last entry before which every dispatched entry has been applied, if it moved since the last call
+     */
+    Optional<Document> appliedUpTo() {
+        rethrowWorkerFailure();
+        return appliedTimestamps.appliedUpTo();
+    }
+
+    /**
+     * Wait until every dispatched entry has been applied.
+     *
+     * @return the last entry applied since the last call, if any
+     */
+    Optional<Document> drain() throws InterruptedException {
+        appliedTimestamps.awaitApplied();
+        return appliedUpTo();
+    }
+
+    @Override
+    public void close() {
+        workers.forEach(Thread::interrupt);
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void applyFrom(BlockingQueue<Document> queue, int partition) {
+        OplogBatch batch = new OplogBatch(batchSize, batchLinger);
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                long timeout = batch.isEmpty() ? IDLE_POLL_TIMEOUT : Math.max(1, batchLinger);
+                Document document = queue.poll(timeout, MILLISECONDS);
+                if (document != null) {
+                    batch.add(document);
+                }
+
+                if (batch.isReady()) {
+                    oplogApplier.apply(batch.getDocuments(), partition);
+                    batch.getDocuments().forEach(appliedTimestamps::applied);
+                    batch.clear();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            log.error("Unable to apply oplog entries, worker {} stops", Thread.currentThread().getName(), e);
+            failure.compareAndSet(null, e);
+            appliedTimestamps.abandon();
+        }
+    }
+
+    private void rethrowWorkerFailure() {
+        RuntimeException workerFailure = failure.get();
+        if (workerFailure != null) {
+            throw workerFailure;
+        }
+    }
+
+    int partitionOf(Document document) {
+        return Math.floorMod(Objects.hash(document.getString("ns"), OperationCoalescer.documentIdOf(document)), queues.size());
+    }
+}
@@ -0,0 +1,157 @@
+package com.malt.mongopostgresqlstreamer;
+
+import lombok.extern.slf4j.Slf4j;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Positions of the applied oplog entries kept in PostgreSQL, written in the same transaction as the entries, with
+ * one row per partition of the entries (one per apply worker). Entries replayed from the checkpoint after a crash
+ * are skipped up to these positions, so that each entry is applied exactly once. A position is a timestamp, which
+ * does not identify a single change of a change stream: the changes of a transaction share the same one. This store
+ * cannot be used with the {@code changestream} source.
+ */
+@Service
+@Slf4j
+public class PostgreSqlCheckpointStore {
+
+    private static final String TABLE = "mongo_streamer_checkpoint";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String store;
+    private final String identifier;
+    private final String source;
+
+    private final Map<Integer, BsonTimestamp> positions = new ConcurrentHashMap<>();
+
+    @Autowired
+    PostgreSqlCheckpointStore(
+            JdbcTemplate jdbcTemplate,
+            @Value(value = "${mongo.connector.checkpoint.store:mongo}") String store,
+            @Value(value = CheckpointManager.IDENTIFIER) String identifier,
+            @Value(value = "${mongo.connector.source:oplog}") String source) {
+
+        this.jdbcTemplate = jdbcTemplate;
+        this.store = store;
+        this.identifier = identifier;
+        this.source = source;
+    }
+
+    @PostConstruct
+    void createTable() {
+        if (isEnabled() && "changestream".equals(source)) {
+            // a partially applied transaction would be skipped after a crash
+            throw new IllegalStateException("mongo.connector.checkpoint.store=postgresql cannot be used with mongo.connector.source=changestream");
+        }
+        if (isEnabled()) {
+            jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + TABLE + " (" +
+                    "identifier TEXT NOT NULL, partition INT NOT NULL, ts BIGINT NOT NULL, " +
+                    "PRIMARY KEY (identifier, partition))");
+        }
+    }
+
+    boolean isEnabled() {
+        return "postgresql".equals(store);
+    }
+
+    /**
+     * Load the positions of the partitions. If the number of partitions changed, entries are no longer partitioned
+     * the same way: every partition starts again from the oldest position.
+     */
+    void load(int partitions) {
+        positions.clear();
+        jdbcTemplate.query("SELECT partition, ts FROM " + TABLE + " WHERE identifier = ?",
+                row -> {
+                    positions.put(row.getInt("partition"), new BsonTimestamp(row.getLong("ts")));
+                },
+                identifier);
+
+        Set<Integer> expectedPartitions = new HashSet<>();
+        for (int partition = 0; partition < partitions; partition++) {
+            expectedPartitions.add(partition);
+        }
+        if (positions.isEmpty() || positions.keySet().equals(expectedPartitions)) {
+            return;
+        }
+
+        BsonTimestamp oldest = Collections.min(positions.values());
+        log.info("Entries were applied by {} partitions, they are now applied by {} from {}", positions.size(), partitions, oldest);
+        jdbcTemplate.update("DELETE FROM " + TABLE + " WHERE identifier = ?", identifier);
+        positions.clear();
+        for (int partition : expectedPartitions) {
+            upsert(partition, oldest);
+            positions.put(partition, oldest);
+        }
+    }
+
+    void clear() {
+        if (isEnabled()) {
+            jdbcTemplate.update("DELETE FROM " + TABLE + " WHERE identifier = ?", identifier);
+        }
+        positions.clear();
+    }
+
+    /**
+     * @return the entries of a partition not applied yet
+     */
+    List<Document> notAppliedYet(List<Document> entries, int partition) {
+        BsonTimestamp position = positions.get(partition);
+        if (position == null) {
+            return entries;
+        }
+        List<Document> notAppliedYet = new ArrayList<>(entries.size());
+        for (Document entry : entries) {
+            if (entry.get("ts", BsonTimestamp.class).compareTo(position) > 0) {
+                notAppliedYet.add(entry);
+            }
+        }
+        return notAppliedYet;
+    }
+
+    /**
+     * A transaction is applied once every partition has been applied up to it, so it was applied if any partition
+     * went past it.
+     */
+    boolean isApplied(BsonTimestamp transaction) {
+        return positions.values().stream().anyMatch(position -> position.compareTo(transaction) >= 0);
+    }
+
+    /**
+     * Must be called within the transaction applying the entries of the partition up to {@code timestamp}. The
+     * position is only used to skip entries once this transaction is committed.
+     */
+    void write(int partition, BsonTimestamp timestamp) {
+        upsert(partition, timestamp);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                positions.put(partition, timestamp);
+            }
+        });
+    }
+
+    private void upsert(int partition, BsonTimestamp timestamp) {
+        jdbcTemplate.update("INSERT INTO " + TABLE + " (identifier, partition, ts) VALUES (?, ?, ?) " +
+                        "ON CONFLICT (identifier, partition) DO UPDATE SET ts = EXCLUDED.ts",
+                identifier, partition, timestamp.getValue());
+    }
+
+    /**
+     * Must be called within the transaction applying a transaction, every partition being applied up to it.
+     */
+    void writeAll(int partitions, BsonTimestamp timestamp) {
+        for (int partition = 0; partition < partitions; partition++) {
+            write(partition, timestamp);
+        }
+    }
+}
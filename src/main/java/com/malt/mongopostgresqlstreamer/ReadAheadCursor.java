@@ -0,0 +1,132 @@
+package com.malt.mongopostgresqlstreamer;
+
+import com.mongodb.ServerAddress;
+import com.mongodb.ServerCursor;
+import com.mongodb.client.MongoCursor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads a cursor from a dedicated thread into a bounded queue, so that reading from MongoDB goes on while entries
+ * are being applied. The reader blocks while the queue is full. A failure of the reader is rethrown to the
+ * consumer once the entries read before it were consumed.
+ */
+@Slf4j
+class ReadAheadCursor implements MongoCursor<Document> {
+
+    private static final long POLL_TIMEOUT_IN_MS = 100;
+
+    private final MongoCursor<Document> cursor;
+    private final BlockingQueue<Document> readDocuments;
+    private final Thread reader;
+
+    private volatile ServerCursor serverCursor;
+    private volatile boolean exhausted;
+    private volatile RuntimeException failure;
+    private Document next;
+
+    ReadAheadCursor(MongoCursor<Document> cursor, int capacity) {
+        this(cursor, capacity, "oplog-read-ahead");
+    }
+
+    ReadAheadCursor(MongoCursor<Document> cursor, int capacity, String readerName) {
+        this.cursor = cursor;
+        this.readDocuments = new ArrayBlockingQueue<>(capacity);
+        this.serverCursor = cursor.getServerCursor();
+        this.reader = new Thread(this::read, readerName);
+        this.reader.setDaemon(true);
+        this.reader.start();
+    }
+
+    private void read() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Document document = cursor.tryNext();
+                serverCursor = cursor.getServerCursor();
+                if (document != null) {
+                    readDocuments.put(document);
+                } else if (serverCursor == null) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            failure = e;
+        } finally {
+            exhausted = true;
+            cursor.close();
+        }
+    }
+
+    /**
+     * Wait a little for the next entry, the way a tailable cursor does.
+     */
+    @Override
+    public Document tryNext() {
+        if (next == null) {
+            try {
+                next = readDocuments.poll(POLL_TIMEOUT_IN_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+        if (next == null && exhausted && readDocuments.isEmpty() && failure != null) {
+            throw failure;
+        }
+
+        Document document = next;
+        next = null;
+        return document;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (next == null) {
+            next = tryNext();
+            if (next == null && getServerCursor() == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Document next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Document document = next;
+        next = null;
+        return document;
+    }
+
+    /**
+     * @return {@code null} once the underlying cursor is dead and every entry it returned was consumed
+     */
+    @Override
+    public ServerCursor getServerCursor() {
+        return exhausted && readDocuments.isEmpty() && next == null ? null : serverCursor;
+    }
+
+    @Override
+    public ServerAddress getServerAddress() {
+        return cursor.getServerAddress();
+    }
+
+    @Override
+    public void close() {
+        reader.interrupt();
+        try {
+            reader.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.malt.mongopostgresqlstreamer;
+
+import com.mongodb.MongoClient;
+import com.mongodb.MongoClientOptions;
+import com.mongodb.MongoCredential;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Sorts;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.BsonDocument;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Tails the oplog of every shard of a cluster, {@code mongo.uri} pointing to a mongos. Each oplog is read from its
+ * own thread and the oplogs are merged by timestamp. The checkpoint is shared by all the shards. An entry of a shard
+ * may still become visible after later entries of the other shards were applied, so every oplog resumes
+ * {@code mongo.connector.shards.resume.window} seconds before the checkpoint: entries read again are applied again,
+ * which is harmless. One client per shard is kept for the life of the source.
+ */
+@Service
+@Slf4j
+@ConditionalOnProperty(name = "mongo.connector.source", havingValue = "shards")
+public class ShardedOplogSource implements OplogSource {
+
+    private static final int SHARD_READ_AHEAD = 1000;
+
+    @Value(value = "${mongo.connector.oplog.batch.size:0}")
+    private int cursorBatchSize;
+
+    @Value(value = "${mongo.connector.oplog.await.time:0}")
+    private long maxAwaitTime;
+
+    @Value(value = "${mongo.connector.shards.resume.window:10}")
+    private int resumeWindow;
+
+    @Autowired
+    private MappingsManager mappingsManager;
+    @Autowired
+    private MongoClient mongoClient;
+
+    private final Map<String, MongoClient> shardClients = new ConcurrentHashMap<>();
+
+    @Override
+    public MongoCursor<Document> open(Optional<BsonTimestamp> checkpoint, Optional<BsonDocument> resumeToken) {
+        OplogQuery query = new OplogQuery(mappingsManager.mappedNamespaces(), cursorBatchSize, maxAwaitTime, true);
+        List<MongoCursor<Document>> cursors = new ArrayList<>();
+        try {
+            for (Document shard : shards()) {
+                MongoCollection<Document> oplog = oplogOf(clientOf(shard));
+
+                Optional<BsonTimestamp> shardCheckpoint = checkpoint.map(this::withResumeWindow);
+                if (shardCheckpoint.isPresent() && !OplogQuery.covers(oplog, shardCheckpoint.get())) {
+                    shardCheckpoint = checkpoint.filter(position -> OplogQuery.covers(oplog, position));
+                    if (!shardCheckpoint.isPresent()) {
+                        log.warn("Last known oplog is not in the oplog of shard {} anymore, it is read from its oldest entry",
+                                shard.getString("_id"));
+                    }
+                }
+                cursors.add(new ReadAheadCursor(
+                        query.tail(oplog, shardCheckpoint).iterator(),
+                        SHARD_READ_AHEAD,
+                        "oplog-read-" + shard.getString("_id")));
+            }
+        } catch (RuntimeException e) {
+            cursors.forEach(MongoCursor::close);
+            throw e;
+        }
+        log.info("Tailing the oplogs of {} shards", cursors.size());
+        return new MergedOplogCursor(cursors);
+    }
+
+    /**
+     * @return the position a shard oplog resumes from
+     */
+    BsonTimestamp withResumeWindow(BsonTimestamp checkpoint) {
+        if (resumeWindow <= 0) {
+            return checkpoint;
+        }
+        return new BsonTimestamp(Math.max(0, checkpoint.getTime() - resumeWindow), 0);
+    }
+
+    @Override
+    public boolean covers(BsonTimestamp checkpoint) {
+        for (Document shard : shards()) {
+            if (!OplogQuery.covers(oplogOf(clientOf(shard)), checkpoint)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The oldest of the last entries of the shards: later entries of the other shards are applied again, which is
+     * harmless, while an entry written to a lagging shard after the import started is not missed.
+     */
+    @Override
+    public BsonTimestamp lastTimestamp() {
+        BsonTimestamp lastTimestamp = null;
+        for (Document shard : shards()) {
+            Document lastOplog = oplogOf(clientOf(shard)).find().sort(Sorts.descending("$natural")).first();
+            if (lastOplog == null) {
+                throw new IllegalStateException("Unable to retrieve last oplog of shard " + shard.getString("_id"));
+            }
+            BsonTimestamp timestamp = lastOplog.get("ts", BsonTimestamp.class);
+            if (lastTimestamp == null || timestamp.compareTo(lastTimestamp) < 0) {
+                lastTimestamp = timestamp;
+            }
+        }
+        if (lastTimestamp == null) {
+            throw new IllegalStateException("No shard found in config.shards. Maybe mongo.uri does not point to a mongos");
+        }
+        return lastTimestamp;
+    }
+
+    private List<Document> shards() {
+        return mongoClient.getDatabase("config").getCollection("shards").find().into(new ArrayList<>());
+    }
+
+    @PreDestroy
+    void close() {
+        shardClients.values().forEach(MongoClient::close);
+        shardClients.clear();
+    }
+
+    private MongoClient clientOf(Document shard) {
+        return shardClients.computeIfAbsent(shard.getString("host"), this::connect);
+    }
+
+    /**
+     * Shard hosts are listed as {@code replicaSet/host1:port,host2:port}.
+     */
+    MongoClient connect(String host) {
+        int separator = host.indexOf('/');
+        List<ServerAddress> seeds = splitHosts(separator < 0 ? host : host.substring(separator + 1));
+
+        MongoClientOptions.Builder options = MongoClientOptions.builder(mongoClient.getMongoClientOptions());
+        if (separator > 0) {
+            options.requiredReplicaSetName(host.substring(0, separator));
+        }
+        // a client built from mongo.uri holds at most one credential
+        List<MongoCredential> credentials = mongoClient.getCredentialsList();
+        return credentials.isEmpty()
+                ? new MongoClient(seeds, options.build())
+                : new MongoClient(seeds, credentials.get(0), options.build());
+    }
+
+    private static List<ServerAddress> splitHosts(String hosts) {
+        return Arrays.stream(hosts.split(","))
+                .map(ShardedOplogSource::serverAddress)
+                .collect(toList());
+    }
+
+    private static ServerAddress serverAddress(String hostAndPort) {
+        int separator = hostAndPort.lastIndexOf(':');
+        return separator < 0
+                ? new ServerAddress(hostAndPort)
+                : new ServerAddress(hostAndPort.substring(0, separator), Integer.parseInt(hostAndPort.substring(separator + 1)));
+    }
+
+    private static MongoCollection<Document> oplogOf(MongoClient shardClient) {
+        return shardClient.getDatabase("local").getCollection("oplog.rs");
+    }
+}
@@ -28,6 +28,14 @@ public class StreamerApplication implements ApplicationRunner {
     private InitialImporter initialImporter;
     @Autowired
     private CheckpointManager checkpointManager;
+    @Autowired
+    private OplogSource oplogSource;
+    @Autowired
+    private CatchUpManager catchUpManager;
+    @Autowired
+    private PostgreSqlCheckpointStore checkpointStore;
+    @Autowired
+    private ImportProgress importProgress;
 
     @Override
     public void run(ApplicationArguments args) {
@@ -44,18 +52,28 @@ public class StreamerApplication implements ApplicationRunner {
                 log.info("Forcing reimport, we will perform a initial load");
             }
 
-            checkpoint = Optional.of(checkpointManager.getLastOplog());
+            Optional<BsonTimestamp> interruptedImportStart = checkpointManager.getInterruptedImportStart();
+            long start = System.currentTimeMillis();
+            if (!forceReimport && interruptedImportStart.isPresent() && importProgress.isPlanned()) {
+                checkpoint = interruptedImportStart;
+                log.info("Resuming the initial load interrupted, started at timestamp : {}", checkpoint.get());
+                initialImporter.resume();
+            } else {
+                checkpoint = Optional.of(oplogSource.lastTimestamp());
 
-            log.info("Last oplog found have timestamp : {}", checkpoint.get().toString());
-            checkpointManager.storeImportStart();
+                log.info("Last oplog found have timestamp : {}", checkpoint.get().toString());
+                checkpointManager.storeImportStart(checkpoint.get());
+                checkpointStore.clear();
 
-            long start = System.currentTimeMillis();
-            initialImporter.start();
+                initialImporter.start();
+            }
             long end = System.currentTimeMillis();
 
             long length = end - start;
             checkpointManager.keep(checkpoint.get());
             checkpointManager.storeImportEnd(length);
+        } else {
+            catchUpManager.resyncLaggingCollections(checkpoint.get());
         }
 
         try {
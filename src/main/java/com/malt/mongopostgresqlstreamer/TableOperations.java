@@ -0,0 +1,78 @@
+package com.malt.mongopostgresqlstreamer;
+
+import com.malt.mongopostgresqlstreamer.connectors.Connector;
+import com.malt.mongopostgresqlstreamer.model.DatabaseMapping;
+import com.malt.mongopostgresqlstreamer.model.FlattenMongoDocument;
+import com.malt.mongopostgresqlstreamer.model.TableMapping;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Changes of a batch targeting a single table mapping, keyed by document id so that only the last version of
+ * each document is written. Removals are applied before upserts: a document removed then inserted again in the
+ * same batch ends up upserted. Partial updates are merged into the pending upsert of their document if any, and
+ * written last otherwise.
+ */
+class TableOperations {
+
+    private final DatabaseMapping databaseMapping;
+    private final TableMapping tableMapping;
+
+    private final Map<Object, FlattenMongoDocument> upserts = new LinkedHashMap<>();
+    private final Map<Object, FlattenMongoDocument> removals = new LinkedHashMap<>();
+    private final Map<Object, FlattenMongoDocument> patches = new LinkedHashMap<>();
+
+    TableOperations(DatabaseMapping databaseMapping, TableMapping tableMapping) {
+        this.databaseMapping = databaseMapping;
+        this.tableMapping = tableMapping;
+    }
+
+    void upsert(FlattenMongoDocument document) {
+        Object id = idOf(document);
+        patches.remove(id);
+        upserts.put(id, document);
+    }
+
+    void patch(FlattenMongoDocument patch) {
+        Object id = idOf(patch);
+        FlattenMongoDocument pendingUpsert = upserts.get(id);
+        FlattenMongoDocument pendingPatch = patches.get(id);
+        if (pendingUpsert != null) {
+            // the pending document may be shared with other mappings, patch a copy of it
+            Map<String, Object> values = new HashMap<>(pendingUpsert.getValues());
+            values.putAll(patch.getValues());
+            FlattenMongoDocument patchedDocument = new FlattenMongoDocument();
+            patchedDocument.setValues(values);
+            upserts.put(id, patchedDocument);
+        } else if (pendingPatch != null) {
+            pendingPatch.getValues().putAll(patch.getValues());
+        } else {
+            patches.put(id, patch);
+        }
+    }
+
+    void remove(FlattenMongoDocument document) {
+        Object id = idOf(document);
+        upserts.remove(id);
+        patches.remove(id);
+        removals.put(id, document);
+    }
+
+    void applyTo(Connector connector) {
+        if (!removals.isEmpty()) {
+            connector.removeAll(tableMapping.getMappingName(), removals.values(), databaseMapping);
+        }
+        if (!upserts.isEmpty()) {
+            connector.upsertAll(tableMapping.getMappingName(), upserts.values(), databaseMapping);
+        }
+        if (!patches.isEmpty()) {
+            connector.patchAll(tableMapping.getMappingName(), patches.values(), databaseMapping);
+        }
+    }
+
+    private static Object idOf(FlattenMongoDocument document) {
+        return document.get("_id").orElseGet(Object::new);
+    }
+}
@@ -0,0 +1,77 @@
+package com.malt.mongopostgresqlstreamer;
+
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+import static java.util.Collections.emptyList;
+
+/**
+ * Expands the multi-document transactions of the oplog, {@code c} entries holding {@code applyOps}, into the
+ * entries they are made of. A transaction written in several entries (large or prepared transactions) is kept
+ * until its last entry or its commit is read, and dropped when it is aborted.
+ */
+class TransactionAssembler {
+
+    private static final List<String> CRUD_OPERATIONS = Arrays.asList("i", "u", "d");
+
+    private final Predicate<String> mappedNamespace;
+    private final Map<List<Object>, List<Document>> pendingTransactions = new HashMap<>();
+
+    TransactionAssembler(Predicate<String> mappedNamespace) {
+        this.mappedNamespace = mappedNamespace;
+    }
+
+    static boolean isTransaction(Document entry) {
+        return "c".equals(entry.getString("op"));
+    }
+
+    /**
+     * @return the entries of the transaction on mapped namespaces, with the timestamp of the entry committing it,
+     * or nothing if the transaction is not committed yet
+     */
+    List<Document> expand(Document entry) {
+        Document command = (Document) entry.get("o");
+        List<Object> transaction = Arrays.asList(entry.get("lsid"), entry.get("txnNumber"));
+        if (command.containsKey("abortTransaction")) {
+            pendingTransactions.remove(transaction);
+            return emptyList();
+        }
+
+        List<Document> operations = pendingTransactions.computeIfAbsent(transaction, notFound -> new ArrayList<>());
+        @SuppressWarnings("unchecked")
+        List<Document> applyOps = (List<Document>) command.get("applyOps");
+        if (applyOps != null) {
+            operations.addAll(applyOps);
+        }
+        if (command.getBoolean("partialTxn", false) || command.getBoolean("prepare", false)) {
+            return emptyList();
+        }
+        pendingTransactions.remove(transaction);
+
+        BsonTimestamp timestamp = entry.get("ts", BsonTimestamp.class);
+        List<Document> expanded = new ArrayList<>(operations.size());
+        for (Document operation : operations) {
+            if (CRUD_OPERATIONS.contains(operation.getString("op"))
+                    && mappedNamespace.test(operation.getString("ns"))
+                    && !operation.containsKey("fromMigrate")) {
+                expanded.add(new Document("ts", timestamp)
+                        .append("op", operation.getString("op"))
+                        .append("ns", operation.getString("ns"))
+                        .append("o", operation.get("o"))
+                        .append("o2", operation.get("o2")));
+            }
+        }
+        return expanded;
+    }
+
+    /**
+     * While a transaction is not committed, the checkpoint must stay before its first entry to read it again after
+     * a restart.
+     */
+    boolean hasPendingTransaction() {
+        return !pendingTransactions.isEmpty();
+    }
+}
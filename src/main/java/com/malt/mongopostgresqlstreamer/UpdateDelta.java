@@ -0,0 +1,192 @@
+package com.malt.mongopostgresqlstreamer;
+
+import com.malt.mongopostgresqlstreamer.model.FieldMapping;
+import com.malt.mongopostgresqlstreamer.model.FilterMapping;
+import com.malt.mongopostgresqlstreamer.model.FlattenMongoDocument;
+import com.malt.mongopostgresqlstreamer.model.TableMapping;
+import org.bson.Document;
+
+import java.util.*;
+
+/**
+ * Modifications carried by an update oplog entry written with the {@code $set} and {@code $unset} operators, or
+ * with the {@code $v:2} diff format of MongoDB 5.0+. Such an entry can be applied to a table without fetching the
+ * whole document back, as long as it only touches scalar columns. Diffs of arrays are positional and are not read,
+ * the document is fetched back instead.
+ */
+class UpdateDelta {
+
+    private final Object documentId;
+    private final Map<String, Object> setValues;
+    private final Set<String> unsetPaths;
+    private Map<String, Object> flattenedValues;
+
+    private UpdateDelta(Object documentId, Map<String, Object> setValues, Set<String> unsetPaths) {
+        this.documentId = documentId;
+        this.setValues = setValues;
+        this.unsetPaths = unsetPaths;
+    }
+
+    /**
+     * @return nothing if the entry replaces the whole document, modifies an array in the diff format or uses
+     * another update format
+     */
+    static Optional<UpdateDelta> of(Document oplogEntry) {
+        Document modifications = oplogEntry.get("o", Document.class);
+        Document documentKey = oplogEntry.get("o2", Document.class);
+
+        Map<String, Object> setValues = new LinkedHashMap<>();
+        Set<String> unsetPaths = new LinkedHashSet<>();
+        for (Map.Entry<String, Object> modification : modifications.entrySet()) {
+            switch (modification.getKey()) {
+                case "$v":
+                    break;
+                case "$set":
+                    setValues.putAll((Document) modification.getValue());
+                    break;
+                case "$unset":
+                    unsetPaths.addAll(((Document) modification.getValue()).keySet());
+                    break;
+                case "diff":
+                    if (!readDiff((Document) modification.getValue(), "", setValues, unsetPaths)) {
+                        return Optional.empty();
+                    }
+                    break;
+                default:
+                    return Optional.empty();
+            }
+        }
+        return Optional.of(new UpdateDelta(documentKey.get("_id"), setValues, unsetPaths));
+    }
+
+    /**
+     * Read a {@code $v:2} diff: {@code u} and {@code i} hold the fields set, {@code d} the fields removed and
+     * {@code s<field>} the diff of a sub-document.
+     *
+     * @return false if the diff modifies an array or holds an unknown section
+     */
+    private static boolean readDiff(Document diff, String prefix, Map<String, Object> setValues, Set<String> unsetPaths) {
+        for (Map.Entry<String, Object> section : diff.entrySet()) {
+            String name = section.getKey();
+            if (name.equals("u") || name.equals("i")) {
+                ((Document) section.getValue()).forEach((field, value) -> setValues.put(prefix + field, value));
+            } else if (name.equals("d")) {
+                ((Document) section.getValue()).keySet().forEach(field -> unsetPaths.add(prefix + field));
+            } else if (name.length() > 1 && name.startsWith("s")) {
+                Document subDiff = (Document) section.getValue();
+                if (subDiff.containsKey("a")
+                        || !readDiff(subDiff, prefix + name.substring(1) + ".", setValues, unsetPaths)) {
+                    return false;
+                }
+            } else {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return whether the update may change a row of the table, i.e. one of its modified paths is, contains or is
+     * inside a mapped or filtered field
+     */
+    boolean touches(TableMapping tableMapping) {
+        return modifiedPaths().stream().anyMatch(path ->
+                tableMapping.getFieldMappings().stream().anyMatch(field -> related(path, field.getSourceName()))
+                        || tableMapping.getFilters().stream().anyMatch(filter -> related(path, filter.getField())));
+    }
+
+    /**
+     * Build the partial document to write into the table: its id and every mapped field touched by the update,
+     * set to {@code null} when removed.
+     *
+     * @return nothing if the table is not keyed by {@code _id} or if the update touches an array, a filtered
+     * field or the inside of a field mapped as a whole
+     */
+    Optional<FlattenMongoDocument> toPatch(TableMapping tableMapping) {
+        Optional<FieldMapping> primaryKeyMapping = tableMapping.getByDestinationName(tableMapping.getPrimaryKey());
+        if (!primaryKeyMapping.isPresent() || !"_id".equals(primaryKeyMapping.get().getSourceName())) {
+            return Optional.empty();
+        }
+
+        for (String path : modifiedPaths()) {
+            for (FieldMapping fieldMapping : tableMapping.getFieldMappings()) {
+                if (fieldMapping.isAnArray()
+                        ? related(path, fieldMapping.getSourceName())
+                        : path.startsWith(fieldMapping.getSourceName() + ".")) {
+                    return Optional.empty();
+                }
+            }
+            for (FilterMapping filter : tableMapping.getFilters()) {
+                if (related(path, filter.getField())) {
+                    return Optional.empty();
+                }
+            }
+        }
+
+        Map<String, Object> flattenedValues = flattenWithId();
+        Map<String, Object> patch = new HashMap<>();
+        patch.put("_id", flattenedValues.get("_id"));
+        for (FieldMapping fieldMapping : tableMapping.getFieldMappings()) {
+            String sourceName = fieldMapping.getSourceName();
+            if (setValues.keySet().stream().anyMatch(path -> covers(path, sourceName))) {
+                patch.put(sourceName, flattenedValues.get(sourceName));
+            } else if (unsetPaths.stream().anyMatch(path -> covers(path, sourceName))) {
+                patch.put(sourceName, null);
+            }
+        }
+
+        FlattenMongoDocument patchDocument = new FlattenMongoDocument();
+        patchDocument.setValues(patch);
+        return Optional.of(patchDocument);
+    }
+
+    private List<String> modifiedPaths() {
+        List<String> modifiedPaths = new ArrayList<>(setValues.keySet());
+        modifiedPaths.addAll(unsetPaths);
+        return modifiedPaths;
+    }
+
+    /**
+     * Flatten the document id and the new values the same way whole documents are, keyed by their full path. This
+     * is done once, whatever the number of tables patched.
+     */
+    private Map<String, Object> flattenWithId() {
+        if (flattenedValues == null) {
+            flattenedValues = flatten();
+        }
+        return flattenedValues;
+    }
+
+    private Map<String, Object> flatten() {
+        List<String> paths = new ArrayList<>(setValues.keySet());
+        Document document = new Document("_id", documentId);
+        for (int i = 0; i < paths.size(); i++) {
+            document.append("v" + i, setValues.get(paths.get(i)));
+        }
+
+        Map<String, Object> flattenedValues = new HashMap<>();
+        FlattenMongoDocument.fromDocument(document).getValues().forEach((key, value) -> {
+            int separator = key.indexOf('.');
+            String valueKey = separator < 0 ? key : key.substring(0, separator);
+            if (key.equals("_id")) {
+                flattenedValues.put(key, value);
+                return;
+            }
+            if (valueKey.equals("_id") || key.equals("_creationdate")) {
+                // the inside of a compound id, or the date derived from an ObjectId id, none of them modified
+                return;
+            }
+            String path = paths.get(Integer.parseInt(valueKey.substring(1)));
+            flattenedValues.put(separator < 0 ? path : path + key.substring(separator), value);
+        });
+        return flattenedValues;
+    }
+
+    private static boolean covers(String path, String field) {
+        return field.equals(path) || field.startsWith(path + ".");
+    }
+
+    private static boolean related(String path, String field) {
+        return covers(path, field) || path.startsWith(field + ".");
+    }
+}
@@ -3,7 +3,7 @@ package com.malt.mongopostgresqlstreamer.connectors;
 import com.malt.mongopostgresqlstreamer.model.DatabaseMapping;
 import com.malt.mongopostgresqlstreamer.model.FlattenMongoDocument;
 
-import java.util.stream.Stream;
+import java.util.Collection;
 
 public interface Connector {
     void createTable(
@@ -24,5 +24,34 @@ public interface Connector {
 
     void remove(String mappingName, FlattenMongoDocument document, DatabaseMapping mappings);
 
-    void bulkInsert(String mappingName, long totalNumberOfDocuments, Stream<FlattenMongoDocument> documents, DatabaseMapping mappings);
+    void upsertAll(String mappingName, Collection<FlattenMongoDocument> documents, DatabaseMapping mappings);
+
+    void patchAll(String mappingName, Collection<FlattenMongoDocument> patches, DatabaseMapping mappings);
+
+    void removeAll(String mappingName, Collection<FlattenMongoDocument> documents, DatabaseMapping mappings);
+
+    /**
+     * Add a document to the bulk insert of the current thread into a mapping, flushed by {@link #finishBulkInsert}.
+     * The document may be shared with other mappings and connectors, and must not be modified.
+     */
+    void addToBulkInsert(String mappingName, FlattenMongoDocument document, DatabaseMapping mappings);
+
+    void finishBulkInsert(String mappingName, DatabaseMapping mappings);
+
+    /**
+     * Create an empty shadow schema, into which tables are imported while the current ones are still read.
+     */
+    void createShadowSchema();
+
+    /**
+     * Must be called within a transaction, whose following statements target the shadow tables.
+     */
+    void useShadowSchema();
+
+    /**
+     * Must be called within a transaction. Replace the tables of a mapping with their shadow tables, if not done yet.
+     */
+    void swapShadowTables(String mappingName, DatabaseMapping mapping);
+
+    void dropShadowSchema();
 }
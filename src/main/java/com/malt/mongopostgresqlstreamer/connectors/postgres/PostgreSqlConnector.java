@@ -13,7 +13,6 @@ import javax.inject.Inject;
 import java.math.BigDecimal;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Stream;
 
 import static java.util.stream.Collectors.toList;
 import static org.apache.commons.lang3.StringUtils.isBlank;
@@ -21,6 +20,8 @@ import static org.apache.commons.lang3.StringUtils.isBlank;
 @Slf4j
 @Service
 public class PostgreSqlConnector implements Connector {
+    private static final String SHADOW_SCHEMA = "mongo_streamer_shadow";
+
     private final SqlExecutor sqlExecutor;
 
     @Inject
@@ -62,6 +63,42 @@ public class PostgreSqlConnector implements Connector {
         }
     }
 
+    @Override
+    public void createShadowSchema() {
+        sqlExecutor.dropSchema(SHADOW_SCHEMA);
+        sqlExecutor.createSchema(SHADOW_SCHEMA);
+    }
+
+    @Override
+    public void useShadowSchema() {
+        // only the shadow schema, so that a table missing from it is never resolved to the current one
+        sqlExecutor.setLocalSearchPath(SHADOW_SCHEMA);
+    }
+
+    @Override
+    public void swapShadowTables(String mappingName, DatabaseMapping mapping) {
+        TableMapping tableMapping = getTableMappingOrFail(mappingName, mapping);
+        if (!sqlExecutor.tableExists(SHADOW_SCHEMA, tableMapping.getDestinationName())) {
+            return;
+        }
+        // the related tables reference the table, they are dropped first
+        dropTableAndRelatives(mappingName, mapping);
+        moveTableAndRelatives(mappingName, mapping, sqlExecutor.currentSchema());
+    }
+
+    private void moveTableAndRelatives(String mappingName, DatabaseMapping mapping, String schema) {
+        TableMapping tableMapping = getTableMappingOrFail(mappingName, mapping);
+        sqlExecutor.moveTable(SHADOW_SCHEMA, tableMapping.getDestinationName(), schema);
+        for (String relatedTable : getRelatedTables(tableMapping)) {
+            moveTableAndRelatives(relatedTable, mapping, schema);
+        }
+    }
+
+    @Override
+    public void dropShadowSchema() {
+        sqlExecutor.dropSchema(SHADOW_SCHEMA);
+    }
+
     @Override
     public void addConstraints(
             String mappingName,
@@ -111,6 +148,55 @@ public class PostgreSqlConnector implements Connector {
         sqlExecutor.finalizeBatchInsert(tableMapping.getDestinationName());
     }
 
+    @Override
+    public void upsertAll(String mappingName, Collection<FlattenMongoDocument> documents, DatabaseMapping mappings) {
+        TableMapping tableMapping = getTableMappingOrFail(mappingName, mappings);
+        String primaryKeyName = tableMapping.getPrimaryKey();
+
+        List<List<Field>> rows = new ArrayList<>(documents.size());
+        for (FlattenMongoDocument document : documents) {
+            rows.add(withPrimaryKeyIfNecessary(keepOnlyMappedFields(document, tableMapping), primaryKeyName));
+        }
+
+        removeAllRelatedRecords(mappings, tableMapping, documents);
+
+        sqlExecutor.upsertAll(tableMapping.getDestinationName(), primaryKeyName, rows);
+
+        Iterator<List<Field>> rowsIterator = rows.iterator();
+        for (FlattenMongoDocument document : documents) {
+            importDocumentRelations(document, mappings, tableMapping, primaryKeyName, rowsIterator.next(), tableMapping);
+        }
+
+        sqlExecutor.finalizeBatchInsert(tableMapping.getDestinationName());
+    }
+
+    @Override
+    public void patchAll(String mappingName, Collection<FlattenMongoDocument> patches, DatabaseMapping mappings) {
+        TableMapping tableMapping = getTableMappingOrFail(mappingName, mappings);
+        String primaryKeyName = tableMapping.getPrimaryKey();
+
+        List<List<Field>> rows = new ArrayList<>(patches.size());
+        for (FlattenMongoDocument patch : patches) {
+            // Only the fields present in the patch, even set to null, are modified
+            Map<String, Object> values = patch.getValues();
+            List<Field> modifiedFields = tableMapping.getFieldMappings().stream()
+                    .filter(fieldMapping -> !fieldMapping.isAnArray())
+                    .filter(fieldMapping -> !fieldMapping.getDestinationName().equals(primaryKeyName))
+                    .filter(fieldMapping -> values.containsKey(fieldMapping.getSourceName()))
+                    .map(fieldMapping -> toField(fieldMapping, values))
+                    .filter(field -> !field.isList())
+                    .collect(toList());
+            if (!modifiedFields.isEmpty()) {
+                modifiedFields.add(new Field(primaryKeyName, getPrimaryKeyValue(patch, tableMapping)));
+                rows.add(modifiedFields);
+            }
+        }
+
+        if (!rows.isEmpty()) {
+            sqlExecutor.updateAll(tableMapping.getDestinationName(), primaryKeyName, rows);
+        }
+    }
+
     @Override
     public void insert(String mappingName, FlattenMongoDocument document, DatabaseMapping mappings) {
         upsert(mappingName, document, mappings);
@@ -121,12 +207,12 @@ public class PostgreSqlConnector implements Connector {
         upsert(mappingName, document, mappings);
     }
 
-    private void removeByForeignKey(String MappingName, String fieldName, Object value, DatabaseMapping mappings) {
+    private void removeByForeignKey(String MappingName, String fieldName, List<Object> values, DatabaseMapping mappings) {
         TableMapping tableMapping = getTableMappingOrFail(MappingName, mappings);
-        sqlExecutor.remove(
+        sqlExecutor.removeAll(
                 tableMapping.getDestinationName(),
                 fieldName,
-                value
+                values
         );
     }
 
@@ -138,56 +224,42 @@ public class PostgreSqlConnector implements Connector {
     }
 
     @Override
-    public void bulkInsert(
-            String mappingName,
-            long totalNumberOfDocuments,
-            Stream<FlattenMongoDocument> documents,
-            DatabaseMapping mappings) {
+    public void removeAll(String mappingName, Collection<FlattenMongoDocument> documents, DatabaseMapping mappings) {
+        TableMapping tableMapping = getTableMappingOrFail(mappingName, mappings);
+        List<Object> primaryKeyValues = documents.stream()
+                .map(document -> getPrimaryKeyValue(document, tableMapping))
+                .collect(toList());
+        sqlExecutor.removeAll(tableMapping.getDestinationName(), tableMapping.getPrimaryKey(), primaryKeyValues);
+    }
 
-        bulkInsert(mappingName, totalNumberOfDocuments, documents, mappings, false, mappingName);
-        sqlExecutor.finalizeBatchInsert(mappingName);
+    @Override
+    public void addToBulkInsert(String mappingName, FlattenMongoDocument document, DatabaseMapping mappings) {
+        TableMapping tableMapping = getTableMappingOrFail(mappingName, mappings);
+        importDocument(document, mappings, tableMapping, tableMapping);
+    }
+
+    @Override
+    public void finishBulkInsert(String mappingName, DatabaseMapping mappings) {
+        sqlExecutor.finalizeBatchInsert(getTableMappingOrFail(mappingName, mappings).getDestinationName());
     }
 
-    private int bulkInsert(
+    private int bulkInsertRelated(
             String mappingName,
-            long totalNumberOfDocuments,
-            Stream<FlattenMongoDocument> documents,
+            List<FlattenMongoDocument> documents,
             DatabaseMapping mappings,
-            boolean relatedCollection,
             String parentMappingName) {
 
-        long startTime = System.currentTimeMillis();
-
-        AtomicInteger counter = new AtomicInteger();
         TableMapping parentMapping = getTableMappingOrFail(parentMappingName, mappings);
         TableMapping tableMapping = getTableMappingOrFail(mappingName, mappings);
+        log.trace("Starting bulk insert of collection {} ({} documents)...", tableMapping.getSourceCollection(), documents.size());
 
-        if (relatedCollection) {
-            log.trace("Starting bulk insert of collection {} ({} documents)...", tableMapping.getSourceCollection(), totalNumberOfDocuments);
-        } else {
-            log.info("Starting bulk insert of collection {} ({} documents)...", tableMapping.getSourceCollection(), totalNumberOfDocuments);
-        }
-
-        String destinationName = tableMapping.getDestinationName();
-        documents
-                .forEach(document -> {
-                    int nbInsertions = importDocument(document, mappings, tableMapping, parentMapping);
-
-                    int tmpCounter = counter.addAndGet(nbInsertions);
-                    if (tmpCounter % 1000 == 0) {
-                        long endTime = System.currentTimeMillis();
-                        double processTimeInSeconds = (endTime - startTime) / 1000D;
-                        log.info("{} documents imported to {} - speed : {}/s", tmpCounter, destinationName, tmpCounter / processTimeInSeconds);
-                    }
-                });
-
-        if (relatedCollection) {
-            log.trace("Bulk insert of collection {} done : {} documents inserted", tableMapping.getSourceCollection(), counter.get());
-        } else {
-            log.info("{} and its related collections was successfully imported ({} documents) !", tableMapping.getSourceCollection(), counter.get());
+        int insertions = 0;
+        for (FlattenMongoDocument document : documents) {
+            insertions += importDocument(document, mappings, tableMapping, parentMapping);
         }
 
-        return counter.get();
+        log.trace("Bulk insert of collection {} done : {} documents inserted", tableMapping.getSourceCollection(), insertions);
+        return insertions;
     }
 
     private int importDocument(FlattenMongoDocument document, DatabaseMapping mappings, TableMapping tableMapping, TableMapping parentMapping) {
@@ -220,6 +292,10 @@ public class PostgreSqlConnector implements Connector {
     }
 
     private void removeAllRelatedRecords(DatabaseMapping mappings, TableMapping tableMapping, FlattenMongoDocument document) {
+        removeAllRelatedRecords(mappings, tableMapping, Collections.singletonList(document));
+    }
+
+    private void removeAllRelatedRecords(DatabaseMapping mappings, TableMapping tableMapping, Collection<FlattenMongoDocument> documents) {
         List<String> relatedCollections = getRelatedCollections(tableMapping);
         for (String relatedCollection : relatedCollections) {
             Optional<FieldMapping> optFieldMapping = tableMapping.getBySourceName(relatedCollection);
@@ -233,9 +309,11 @@ public class PostgreSqlConnector implements Connector {
                 continue;
             }
 
-            Object foreignKeyValue = getPrimaryKeyValue(document, tableMapping);
+            List<Object> foreignKeyValues = documents.stream()
+                    .map(document -> getPrimaryKeyValue(document, tableMapping))
+                    .collect(toList());
 
-            removeByForeignKey(optFieldMapping.get().getDestinationName(), foreignKey, foreignKeyValue, mappings);
+            removeByForeignKey(optFieldMapping.get().getDestinationName(), foreignKey, foreignKeyValues, mappings);
         }
     }
 
@@ -262,12 +340,10 @@ public class PostgreSqlConnector implements Connector {
             );
 
             counter.addAndGet(
-                    bulkInsert(
+                    bulkInsertRelated(
                             optFieldMapping.get().getDestinationName(),
-                            relatedDocuments.size(),
-                            relatedDocuments.stream(),
+                            relatedDocuments,
                             mappings,
-                            true,
                             parentMapping.getDestinationName()
                     )
             );
@@ -1,5 +1,7 @@
 package com.malt.mongopostgresqlstreamer.connectors.postgres;
 
+import com.malt.mongopostgresqlstreamer.connectors.postgres.batch.BatchSizeController;
+import com.malt.mongopostgresqlstreamer.connectors.postgres.batch.BatchSizes;
 import com.malt.mongopostgresqlstreamer.connectors.postgres.batch.CopyOperationsManager;
 import com.malt.mongopostgresqlstreamer.model.FieldMapping;
 import lombok.extern.slf4j.Slf4j;
@@ -8,7 +10,7 @@ import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 
 import javax.inject.Inject;
-import java.util.List;
+import java.util.*;
 
 import static java.lang.String.format;
 import static java.util.Comparator.comparing;
@@ -18,13 +20,18 @@ import static java.util.stream.Collectors.toList;
 @Service
 @Slf4j
 public class SqlExecutor {
+    // PostgreSQL does not accept more bind parameters in a single statement
+    private static final int MAX_PARAMETERS = Short.MAX_VALUE;
+
     private final JdbcTemplate jdbcTemplate;
     private final CopyOperationsManager copyOperationsManager;
+    private final BatchSizes batchSizes;
 
     @Inject
-    public SqlExecutor(JdbcTemplate jdbcTemplate, CopyOperationsManager copyOperationsManager) {
+    public SqlExecutor(JdbcTemplate jdbcTemplate, CopyOperationsManager copyOperationsManager, BatchSizes batchSizes) {
         this.jdbcTemplate = jdbcTemplate;
         this.copyOperationsManager = copyOperationsManager;
+        this.batchSizes = batchSizes;
     }
 
     void upsert(String table, String primaryKey, List<Field> fields) {
@@ -50,6 +57,92 @@ public class SqlExecutor {
         }
     }
 
+    void upsertAll(String table, String primaryKey, List<List<Field>> rows) {
+        // A row cannot be updated twice by the same INSERT ... ON CONFLICT statement, keep the last one
+        Map<Object, List<Field>> rowsByPrimaryKey = new LinkedHashMap<>();
+        for (List<Field> row : rows) {
+            rowsByPrimaryKey.put(primaryKeyValue(row, primaryKey), row);
+        }
+
+        // Documents may not define every mapped field, so group rows having the same columns
+        Map<List<String>, List<List<Field>>> rowsByColumns = new LinkedHashMap<>();
+        for (List<Field> row : rowsByPrimaryKey.values()) {
+            List<String> columns = row.stream().map(Field::getName).collect(toList());
+            rowsByColumns.computeIfAbsent(columns, notFound -> new ArrayList<>()).add(row);
+        }
+
+        BatchSizeController batchSize = batchSizes.of("upsert", table);
+        rowsByColumns.forEach((columns, rowsWithSameColumns) -> {
+            int from = 0;
+            while (from < rowsWithSameColumns.size()) {
+                int rowsPerStatement = Math.max(1, Math.min(batchSize.currentSize(), MAX_PARAMETERS / columns.size()));
+                List<List<Field>> chunk = rowsWithSameColumns.subList(from, Math.min(from + rowsPerStatement, rowsWithSameColumns.size()));
+
+                long start = System.currentTimeMillis();
+                try {
+                    upsertChunk(table, primaryKey, columns, chunk);
+                } catch (RuntimeException e) {
+                    batchSize.failed();
+                    throw e;
+                }
+                batchSize.succeeded(chunk.size(), System.currentTimeMillis() - start);
+                from += chunk.size();
+            }
+        });
+    }
+
+    private void upsertChunk(String table, String primaryKey, List<String> columns, List<List<Field>> rows) {
+        String placeholders = rows.stream()
+                .map(row -> "(" + getPlaceholders(row) + ")")
+                .collect(joining(", "));
+        String query = format(
+                "INSERT INTO %s (%s) VALUES %s ON CONFLICT (%s) DO UPDATE SET %s",
+                table, String.join(", ", columns), placeholders,
+                primaryKey, generateExcludedUpdateString(columns)
+        );
+
+        Object[] valuesArray = rows.stream()
+                .flatMap(row -> getValues(row).stream())
+                .toArray();
+
+        log.debug("{} {}", query, valuesArray);
+        try {
+            jdbcTemplate.update(query, valuesArray);
+        } catch (Exception e) {
+            log.error("Unable to upsert {} records in {}", rows.size(), table, e);
+            throw e;
+        }
+    }
+
+    void updateAll(String table, String primaryKey, List<List<Field>> rows) {
+        // One batched statement per set of modified columns, the primary key being the last parameter
+        Map<List<String>, List<Object[]>> valuesByColumns = new LinkedHashMap<>();
+        for (List<Field> row : rows) {
+            List<Field> modifiedFields = row.stream()
+                    .filter(field -> !field.getName().equals(primaryKey))
+                    .collect(toList());
+            List<String> columns = modifiedFields.stream().map(Field::getName).collect(toList());
+            List<Object> values = getValues(modifiedFields);
+            values.add(primaryKeyValue(row, primaryKey));
+            valuesByColumns.computeIfAbsent(columns, notFound -> new ArrayList<>()).add(values.toArray());
+        }
+
+        valuesByColumns.forEach((columns, values) -> {
+            String query = format(
+                    "UPDATE %s SET %s WHERE %s = ?",
+                    table, columns.stream().map(column -> column + " = ?").collect(joining(", ")), primaryKey
+            );
+
+            log.debug("{} ({} rows)", query, values.size());
+            try {
+                jdbcTemplate.batchUpdate(query, values);
+            } catch (Exception e) {
+                log.error("Unable to update {} records in {}", values.size(), table, e);
+                throw e;
+            }
+        });
+    }
+
     void batchInsert(String parentTable, String table, List<FieldMapping> mappings, List<Field> fields) {
         log.trace("Bulking insert of {} ({})", table, fields);
         copyOperationsManager.addInsertOperation(parentTable, table, mappings, fields);
@@ -64,6 +157,33 @@ public class SqlExecutor {
         sqlExecute("DROP TABLE IF EXISTS %s", table);
     }
 
+    void createSchema(String schema) {
+        log.debug("Creating schema '{}'...", schema);
+        sqlExecute("CREATE SCHEMA %s", schema);
+    }
+
+    void dropSchema(String schema) {
+        log.debug("Dropping schema '{}'...", schema);
+        sqlExecute("DROP SCHEMA IF EXISTS %s CASCADE", schema);
+    }
+
+    void setLocalSearchPath(String schema) {
+        sqlExecute("SET LOCAL search_path TO %s", schema);
+    }
+
+    String currentSchema() {
+        return jdbcTemplate.queryForObject("SELECT current_schema()", String.class);
+    }
+
+    boolean tableExists(String schema, String table) {
+        return jdbcTemplate.queryForObject("SELECT to_regclass(?) IS NOT NULL", Boolean.class, schema + "." + table);
+    }
+
+    void moveTable(String fromSchema, String table, String toSchema) {
+        log.debug("Moving table '{}' from schema '{}' to '{}'...", table, fromSchema, toSchema);
+        sqlExecute("ALTER TABLE %s.%s SET SCHEMA %s", fromSchema, table, toSchema);
+    }
+
     void setTableAsLogged(String table) {
         log.debug("Set table '{}' as logged ...", table);
         sqlExecute("ALTER TABLE %s SET LOGGED", table);
@@ -113,6 +233,24 @@ public class SqlExecutor {
         }
     }
 
+    void removeAll(String table, String primaryKey, List<Object> primaryKeyValues) {
+        log.debug("Remove {} documents from {}", primaryKeyValues.size(), table);
+
+        for (int from = 0; from < primaryKeyValues.size(); from += MAX_PARAMETERS) {
+            List<Object> chunk = primaryKeyValues.subList(from, Math.min(from + MAX_PARAMETERS, primaryKeyValues.size()));
+            String placeholders = chunk.stream().map(p -> "?").collect(joining(", "));
+            try {
+                jdbcTemplate.update(
+                        format("DELETE FROM %s WHERE %s IN (%s)", table, primaryKey, placeholders),
+                        chunk.toArray()
+                );
+            } catch (Exception e) {
+                log.error("Unable to delete records : {}", primaryKey, e);
+                throw e;
+            }
+        }
+    }
+
     private void sqlExecute(String query, Object... parameters) {
         String sql = format(query, parameters);
 
@@ -150,6 +288,20 @@ public class SqlExecutor {
                 .collect(joining(","));
     }
 
+    private String generateExcludedUpdateString(List<String> columns) {
+        return columns.stream()
+                .map(column -> column + " = EXCLUDED." + column)
+                .collect(joining(", "));
+    }
+
+    private static Object primaryKeyValue(List<Field> row, String primaryKey) {
+        return row.stream()
+                .filter(field -> field.getName().equals(primaryKey))
+                .map(Field::getValue)
+                .findFirst()
+                .orElseGet(Object::new);
+    }
+
     private String generateUpdateString(List<Field> fields) {
         return fields.stream()
                 .map(field -> field.getName() + " = ?")
@@ -0,0 +1,48 @@
+package com.malt.mongopostgresqlstreamer.connectors.postgres.batch;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sizes the batches written to a table from the time they take: the size grows by a step after each full batch
+ * written within the target latency, and is halved after a slower or failed one.
+ */
+public class BatchSizeController {
+
+    private final int minSize;
+    private final int maxSize;
+    private final int step;
+    private final long targetLatency;
+    private final AtomicInteger size;
+
+    BatchSizeController(int initialSize, int minSize, int maxSize, long targetLatency) {
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.step = Math.max(1, initialSize / 10);
+        this.targetLatency = targetLatency;
+        this.size = new AtomicInteger(Math.max(minSize, Math.min(maxSize, initialSize)));
+    }
+
+    public int currentSize() {
+        return size.get();
+    }
+
+    /**
+     * @param rows    number of rows of the batch, a batch smaller than the current size tells nothing about a larger one
+     * @param elapsed time spent writing the batch, in milliseconds
+     */
+    public void succeeded(int rows, long elapsed) {
+        if (elapsed > targetLatency) {
+            shrink();
+        } else if (rows >= size.get()) {
+            size.updateAndGet(current -> Math.min(maxSize, current + step));
+        }
+    }
+
+    public void failed() {
+        shrink();
+    }
+
+    private void shrink() {
+        size.updateAndGet(current -> Math.max(minSize, current / 2));
+    }
+}
@@ -0,0 +1,55 @@
+package com.malt.mongopostgresqlstreamer.connectors.postgres.batch;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.inject.Inject;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The batch size controllers of every table, one per kind of statement. Their current size is reported as the
+ * {@code streamer.batch.size} gauge.
+ */
+@Service
+public class BatchSizes {
+
+    private static final int MIN_SIZE = 10;
+
+    private final MeterRegistry meterRegistry;
+    private final int initialSize;
+    private final int maxSize;
+    private final long targetLatency;
+    private final Map<List<String>, BatchSizeController> controllers = new ConcurrentHashMap<>();
+
+    @Inject
+    public BatchSizes(
+            MeterRegistry meterRegistry,
+            @Value(value = "${mongo.connector.write.batch.initial:500}") int initialSize,
+            @Value(value = "${mongo.connector.write.batch.max:10000}") int maxSize,
+            @Value(value = "${mongo.connector.write.latency.target:1000}") long targetLatency) {
+
+        this.meterRegistry = meterRegistry;
+        this.initialSize = initialSize;
+        this.maxSize = maxSize;
+        this.targetLatency = targetLatency;
+    }
+
+    /**
+     * @param statement the kind of statement the batches are written with, e.g. {@code copy} or {@code upsert}
+     */
+    public BatchSizeController of(String statement, String table) {
+        return controllers.computeIfAbsent(Arrays.asList(statement, table), notFound -> {
+            BatchSizeController controller = new BatchSizeController(initialSize, MIN_SIZE, maxSize, targetLatency);
+            Gauge.builder("streamer.batch.size", controller, BatchSizeController::currentSize)
+                    .tag("statement", statement)
+                    .tag("table", table)
+                    .register(meterRegistry);
+            return controller;
+        });
+    }
+}
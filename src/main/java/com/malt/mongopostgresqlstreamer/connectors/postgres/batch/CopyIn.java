@@ -0,0 +1,10 @@
+package com.malt.mongopostgresqlstreamer.connectors.postgres.batch;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.SQLException;
+
+@FunctionalInterface
+interface CopyIn {
+    long copyIn(String sql, InputStream from) throws SQLException, IOException;
+}
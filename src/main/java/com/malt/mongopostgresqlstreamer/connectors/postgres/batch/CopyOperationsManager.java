@@ -4,36 +4,58 @@ import com.malt.mongopostgresqlstreamer.connectors.postgres.Field;
 import com.malt.mongopostgresqlstreamer.model.FieldMapping;
 import lombok.extern.slf4j.Slf4j;
 import org.postgresql.copy.CopyManager;
+import org.postgresql.core.BaseConnection;
+import org.springframework.jdbc.datasource.DataSourceUtils;
 import org.springframework.stereotype.Service;
 
 import javax.inject.Inject;
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Buffers COPY operations per thread, so that several threads can import or stream concurrently. Each COPY runs
+ * on the connection bound to the current transaction if any, or on a connection borrowed from the pool.
+ */
 @Service
 @Slf4j
 public class CopyOperationsManager {
-    private final CopyManager copyManager;
-    private final Map<String, TableAndRelativesCopyOperations> copyOperationsPerTable = new ConcurrentHashMap<>(1);
+    private final DataSource dataSource;
+    private final BatchSizes batchSizes;
+    private final ThreadLocal<Map<String, TableAndRelativesCopyOperations>> copyOperationsPerTable = ThreadLocal.withInitial(HashMap::new);
 
     @Inject
-    public CopyOperationsManager(CopyManager copyManager) {
-        this.copyManager = copyManager;
+    public CopyOperationsManager(DataSource dataSource, BatchSizes batchSizes) {
+        this.dataSource = dataSource;
+        this.batchSizes = batchSizes;
     }
 
     public void addInsertOperation(String parentTable, String table, List<FieldMapping> fieldMappings, List<Field> fields) {
-        TableAndRelativesCopyOperations operations = copyOperationsPerTable.computeIfAbsent(
+        TableAndRelativesCopyOperations operations = copyOperationsPerTable.get().computeIfAbsent(
                 parentTable,
-                notFound -> new TableAndRelativesCopyOperations(copyManager)
+                notFound -> new TableAndRelativesCopyOperations(this::copyIn, batchSizes.of("copy", parentTable))
         );
         operations.addOperation(table, fieldMappings, fields);
     }
 
     public void finalizeCopyOperations(String destParentTable) {
-        TableAndRelativesCopyOperations operations = copyOperationsPerTable.get(destParentTable);
+        TableAndRelativesCopyOperations operations = copyOperationsPerTable.get().get(destParentTable);
         if (operations != null) {
             operations.finalizeOperations();
         }
     }
+
+    private long copyIn(String sql, InputStream from) throws SQLException, IOException {
+        Connection connection = DataSourceUtils.getConnection(dataSource);
+        try {
+            return new CopyManager(connection.unwrap(BaseConnection.class)).copyIn(sql, from);
+        } finally {
+            DataSourceUtils.releaseConnection(connection, dataSource);
+        }
+    }
 }
@@ -4,7 +4,6 @@ import com.malt.mongopostgresqlstreamer.connectors.postgres.Field;
 import com.malt.mongopostgresqlstreamer.model.FieldMapping;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.text.StringEscapeUtils;
-import org.postgresql.copy.CopyManager;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
@@ -23,19 +22,19 @@ class SingleTableCopyOperations {
     private final String table;
     private final String fieldsHeader;
     private final List<String> fieldNames;
-    private final CopyManager copyManager;
+    private final CopyIn copyIn;
 
     private StringBuilder copyString;
 
     SingleTableCopyOperations(
             String table, List<FieldMapping> fields,
-            CopyManager copyManager
+            CopyIn copyIn
     ) {
         this.table = table;
         this.fieldNames = fields.stream().filter(mapping -> !mapping.isAnArray()).map(FieldMapping::getDestinationName).sorted().collect(toList());
         this.fieldsHeader = serialize(fieldNames);
         this.copyString = new StringBuilder(fieldsHeader);
-        this.copyManager = copyManager;
+        this.copyIn = copyIn;
     }
 
     void addOperation(List<Field> fields) {
@@ -129,7 +128,7 @@ class SingleTableCopyOperations {
     private void commitPendingUpserts(SingleTableCopyOperations singleTableCopyOperations) {
         try {
             log.trace("COPY on {} : {}", singleTableCopyOperations.getTable(), singleTableCopyOperations.getCopyContent());
-            copyManager.copyIn(
+            copyIn.copyIn(
                     "COPY " + singleTableCopyOperations.getTable() + " FROM STDIN WITH DELIMITER ',' NULL as 'null' CSV HEADER",
                     singleTableCopyOperations.getCopyContentStream()
             );
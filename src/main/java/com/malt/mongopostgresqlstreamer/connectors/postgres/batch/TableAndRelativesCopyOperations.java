@@ -2,7 +2,6 @@ package com.malt.mongopostgresqlstreamer.connectors.postgres.batch;
 
 import com.malt.mongopostgresqlstreamer.connectors.postgres.Field;
 import com.malt.mongopostgresqlstreamer.model.FieldMapping;
-import org.postgresql.copy.CopyManager;
 
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -10,26 +9,38 @@ import java.util.Map;
 
 class TableAndRelativesCopyOperations {
 
-    private static final int CHUNK_SIZE = 500;
-
-    private final CopyManager copyManager;
+    private final CopyIn copyIn;
+    private final BatchSizeController batchSize;
     private final Map<String, SingleTableCopyOperations> operationsForMainTableAndRelativesIncreasingDepthOfRelation = new LinkedHashMap<>();
 
-    TableAndRelativesCopyOperations(CopyManager copyManager) {
-        this.copyManager = copyManager;
+    TableAndRelativesCopyOperations(CopyIn copyIn, BatchSizeController batchSize) {
+        this.copyIn = copyIn;
+        this.batchSize = batchSize;
     }
 
     void addOperation(String tableName, List<FieldMapping> fieldMappings, List<Field> fields) {
         SingleTableCopyOperations tableOperations = operationsForMainTableAndRelativesIncreasingDepthOfRelation.computeIfAbsent(
                 tableName,
-                tn -> new SingleTableCopyOperations(tn, fieldMappings, copyManager)
+                tn -> new SingleTableCopyOperations(tn, fieldMappings, copyIn)
         );
 
         tableOperations.addOperation(fields);
 
-        if (countPendingValues() >= CHUNK_SIZE) {
+        int pendingValues = countPendingValues();
+        if (pendingValues >= batchSize.currentSize()) {
+            finalizeChunk(pendingValues);
+        }
+    }
+
+    private void finalizeChunk(int pendingValues) {
+        long start = System.currentTimeMillis();
+        try {
             finalizeOperations();
+        } catch (RuntimeException e) {
+            batchSize.failed();
+            throw e;
         }
+        batchSize.succeeded(pendingValues, System.currentTimeMillis() - start);
     }
 
     private int countPendingValues() {
@@ -1,11 +1,8 @@
 package com.malt.mongopostgresqlstreamer.monitoring;
 
 import com.malt.mongopostgresqlstreamer.CheckpointManager;
-import com.mongodb.client.MongoCollection;
-import com.mongodb.client.MongoDatabase;
+import com.malt.mongopostgresqlstreamer.OplogSource;
 import org.bson.BsonTimestamp;
-import org.bson.Document;
-import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.actuate.health.Health;
 import org.springframework.boot.actuate.health.HealthIndicator;
 import org.springframework.stereotype.Component;
@@ -16,14 +13,11 @@ import java.util.Optional;
 public class StatusHealthIndicator implements HealthIndicator {
 
     private final CheckpointManager checkpointManager;
-    private final MongoDatabase oplog;
-
-    StatusHealthIndicator(
-            CheckpointManager checkpointManager,
-            @Qualifier("oplog") MongoDatabase oplog) {
+    private final OplogSource oplogSource;
 
+    StatusHealthIndicator(CheckpointManager checkpointManager, OplogSource oplogSource) {
         this.checkpointManager = checkpointManager;
-        this.oplog = oplog;
+        this.oplogSource = oplogSource;
     }
 
     @Override
@@ -31,7 +25,7 @@ public class StatusHealthIndicator implements HealthIndicator {
         Optional<BsonTimestamp> lastKnown = checkpointManager.getLastKnown();
 
         Lag lag = lastKnown.map(Lag::new).orElseGet(Lag::new);
-        boolean checkpointUp = lastKnown.map(this::checkIfCheckpointIsInOpLog).orElse(false);
+        boolean checkpointUp = lastKnown.map(oplogSource::covers).orElse(false);
         InitialImport initialImport = checkpointManager.lastImportStatus();
 
         return Health.up()
@@ -40,19 +34,4 @@ public class StatusHealthIndicator implements HealthIndicator {
                 .withDetail("checkpoint", checkpointUp)
                 .build();
     }
-
-    private boolean checkIfCheckpointIsInOpLog(BsonTimestamp ts) {
-        MongoCollection<Document> oplogCollection = this.oplog.getCollection("oplog.rs");
-        Document firstOpLog = oplogCollection.find().limit(1).first();
-        if (firstOpLog == null) {
-            return false;
-        }
-
-        BsonTimestamp olderTs = firstOpLog.get("ts", BsonTimestamp.class);
-        if (olderTs == null) {
-            return false;
-        }
-
-        return olderTs.compareTo(ts) <= 0;
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,90 @@
+package com.malt.mongopostgresqlstreamer;
+
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AppliedTimestampsTest {
+
+    private final AppliedTimestamps appliedTimestamps = new AppliedTimestamps();
+
+    @Test
+    void it_should_not_move_past_an_entry_which_is_not_applied_yet() {
+        Document first = entry(1, 1);
+        Document second = entry(1, 2);
+        Document third = entry(1, 3);
+        appliedTimestamps.dispatched(first);
+        appliedTimestamps.dispatched(second);
+        appliedTimestamps.dispatched(third);
+
+        appliedTimestamps.applied(second);
+        appliedTimestamps.applied(third);
+        assertThat(appliedTimestamps.appliedUpTo()).isEmpty();
+
+        appliedTimestamps.applied(first);
+        assertThat(appliedTimestamps.appliedUpTo()).containsSame(third);
+    }
+
+    @Test
+    void it_should_move_up_to_the_last_entry_applied_in_order() {
+        Document first = entry(1, 1);
+        Document second = entry(1, 2);
+        Document third = entry(1, 3);
+        appliedTimestamps.dispatched(first);
+        appliedTimestamps.dispatched(second);
+        appliedTimestamps.dispatched(third);
+
+        appliedTimestamps.applied(first);
+        appliedTimestamps.applied(third);
+
+        assertThat(appliedTimestamps.appliedUpTo()).containsSame(first);
+        assertThat(appliedTimestamps.appliedUpTo()).isEmpty();
+    }
+
+    @Test
+    void it_should_stop_within_changes_sharing_the_same_timestamp() {
+        Document firstChange = entry(2, 1).append("resumeToken", "first");
+        Document secondChange = entry(2, 1).append("resumeToken", "second");
+        appliedTimestamps.dispatched(firstChange);
+        appliedTimestamps.dispatched(secondChange);
+
+        appliedTimestamps.applied(firstChange);
+
+        assertThat(appliedTimestamps.appliedUpTo()).containsSame(firstChange);
+        assertThat(appliedTimestamps.isEmpty()).isFalse();
+    }
+
+    @Test
+    void it_should_wait_until_every_dispatched_entry_is_applied() throws InterruptedException {
+        Document first = entry(3, 1);
+        Document second = entry(3, 2);
+        appliedTimestamps.dispatched(first);
+        appliedTimestamps.dispatched(second);
+        appliedTimestamps.applied(second);
+
+        Thread worker = new Thread(() -> appliedTimestamps.applied(first));
+        worker.start();
+        appliedTimestamps.awaitApplied();
+        worker.join();
+
+        assertThat(appliedTimestamps.appliedUpTo()).containsSame(second);
+    }
+
+    @Test
+    void it_should_stop_waiting_once_the_entries_are_abandoned() throws InterruptedException {
+        appliedTimestamps.dispatched(entry(4, 1));
+
+        Thread worker = new Thread(appliedTimestamps::abandon);
+        worker.start();
+        appliedTimestamps.awaitApplied();
+        worker.join();
+
+        assertThat(appliedTimestamps.isEmpty()).isFalse();
+    }
+
+    private static Document entry(int time, int increment) {
+        return new Document("ts", new BsonTimestamp(time, increment));
+    }
+}
@@ -0,0 +1,113 @@
+package com.malt.mongopostgresqlstreamer;
+
+import com.mongodb.MongoClient;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoDatabase;
+import org.bson.BsonTimestamp;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static java.util.Collections.singletonList;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class CatchUpManagerTest {
+
+    private static final BsonTimestamp CHECKPOINT = new BsonTimestamp(100, 1);
+    private static final BsonTimestamp RESYNC_POINT = new BsonTimestamp(200, 1);
+
+    @Mock
+    private MappingsManager mappingsManager;
+    @Mock
+    private MongoClient mongoClient;
+    @Mock
+    private MongoDatabase oplog;
+    @Mock
+    private OplogSource oplogSource;
+    @Mock
+    private InitialImporter initialImporter;
+    @Mock
+    private OplogApplier oplogApplier;
+    @Spy
+    @InjectMocks
+    private CatchUpManager catchUpManager;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.initMocks(this);
+        ReflectionTestUtils.setField(catchUpManager, "resyncRatio", 2.0);
+        when(oplogSource.covers(CHECKPOINT)).thenReturn(true);
+        when(oplogSource.lastTimestamp()).thenReturn(RESYNC_POINT);
+        doAnswer(invocation -> {
+            List<String> namespaces = invocation.getArgument(0);
+            namespaces.forEach(invocation.<Consumer<String>>getArgument(1));
+            return null;
+        }).when(initialImporter).resync(any(), any());
+    }
+
+    @Test
+    void it_should_import_again_only_the_collections_with_a_backlog_above_the_ratio() {
+        Map<String, Long> backlog = new LinkedHashMap<>();
+        backlog.put("shop.carts", 201L);
+        backlog.put("shop.users", 200L);
+        doReturn(backlog).when(catchUpManager).backlogPerNamespace(CHECKPOINT);
+        doReturn(100L).when(catchUpManager).countDocuments(anyString());
+
+        catchUpManager.resyncLaggingCollections(CHECKPOINT);
+
+        verify(initialImporter).resync(eq(singletonList("shop.carts")), any());
+        verify(oplogApplier).skipUpTo("shop.carts", RESYNC_POINT);
+        verify(oplogApplier, never()).skipUpTo(eq("shop.users"), any());
+    }
+
+    @Test
+    void it_should_take_the_resync_point_before_importing_and_skip_entries_after_importing() {
+        doReturn(singletonMap("shop.carts", 1000L)).when(catchUpManager).backlogPerNamespace(CHECKPOINT);
+        doReturn(10L).when(catchUpManager).countDocuments("shop.carts");
+
+        catchUpManager.resyncLaggingCollections(CHECKPOINT);
+
+        InOrder inOrder = inOrder(oplogSource, initialImporter, oplogApplier);
+        inOrder.verify(oplogSource).lastTimestamp();
+        inOrder.verify(initialImporter).resync(eq(singletonList("shop.carts")), any());
+        inOrder.verify(oplogApplier).skipUpTo("shop.carts", RESYNC_POINT);
+    }
+
+    @Test
+    void it_should_replay_the_oplog_when_the_backlog_cannot_be_estimated() {
+        doThrow(new MongoException("not authorized on local")).when(catchUpManager).backlogPerNamespace(CHECKPOINT);
+
+        catchUpManager.resyncLaggingCollections(CHECKPOINT);
+
+        verify(initialImporter, never()).resync(any(), any());
+    }
+
+    @Test
+    void it_should_leave_the_recovery_to_the_gap_recovery_when_the_checkpoint_is_not_covered() {
+        when(oplogSource.covers(CHECKPOINT)).thenReturn(false);
+
+        catchUpManager.resyncLaggingCollections(CHECKPOINT);
+
+        verify(catchUpManager, never()).backlogPerNamespace(any());
+        verify(initialImporter, never()).resync(any(), any());
+    }
+
+    private static Map<String, Long> singletonMap(String namespace, long entries) {
+        Map<String, Long> backlog = new LinkedHashMap<>();
+        backlog.put(namespace, entries);
+        return backlog;
+    }
+}
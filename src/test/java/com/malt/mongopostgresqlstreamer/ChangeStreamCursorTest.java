@@ -0,0 +1,59 @@
+package com.malt.mongopostgresqlstreamer;
+
+import com.mongodb.MongoNamespace;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import org.bson.BsonDocument;
+import org.bson.BsonObjectId;
+import org.bson.BsonString;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ChangeStreamCursorTest {
+
+    private static final ObjectId ID = new ObjectId();
+    private static final MongoNamespace NAMESPACE = new MongoNamespace("shop.carts");
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void it_should_convert_changes_to_oplog_entries_and_skip_updates_of_removed_documents() {
+        MongoCursor<ChangeStreamDocument<Document>> changes = mock(MongoCursor.class);
+        Document cart = new Document("_id", ID).append("total", 12);
+        when(changes.tryNext()).thenReturn(
+                change(OperationType.UPDATE, null, 1),
+                change(OperationType.UPDATE, cart, 2),
+                change(OperationType.DELETE, null, 3),
+                null
+        );
+
+        ChangeStreamCursor cursor = new ChangeStreamCursor(changes);
+
+        Document update = cursor.tryNext();
+        assertThat(update.getString("op")).isEqualTo("u");
+        assertThat(update.getString("ns")).isEqualTo("shop.carts");
+        assertThat(update.get("o")).isEqualTo(cart);
+        assertThat(update.get("o2")).isEqualTo(new Document("_id", ID));
+
+        Document removal = cursor.tryNext();
+        assertThat(removal.getString("op")).isEqualTo("d");
+        assertThat(removal.get("o")).isEqualTo(new Document("_id", ID));
+        assertThat(removal.get("ts")).isEqualTo(new BsonTimestamp(1, 3));
+        assertThat(removal.get("resumeToken")).isEqualTo(new BsonDocument("_data", new BsonString("token-3")));
+
+        assertThat(cursor.tryNext()).isNull();
+    }
+
+    private ChangeStreamDocument<Document> change(OperationType operationType, Document fullDocument, int increment) {
+        BsonDocument resumeToken = new BsonDocument("_data", new BsonString("token-" + increment));
+        BsonDocument documentKey = new BsonDocument("_id", new BsonObjectId(ID));
+        return new ChangeStreamDocument<>(resumeToken, NAMESPACE, fullDocument, documentKey,
+                new BsonTimestamp(1, increment), operationType, null);
+    }
+}
@@ -0,0 +1,70 @@
+package com.malt.mongopostgresqlstreamer;
+
+import com.mongodb.MongoClient;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoDatabase;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.Optional;
+
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+class ChangeStreamSourceTest {
+
+    @Mock
+    private MappingsManager mappingsManager;
+    @Mock
+    private MongoClient mongoClient;
+    @InjectMocks
+    private ChangeStreamSource changeStreamSource;
+
+    @SuppressWarnings("unchecked")
+    private final ChangeStreamIterable<Document> changes = mock(ChangeStreamIterable.class, RETURNS_SELF);
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.initMocks(this);
+        when(mappingsManager.mappedNamespaces()).thenReturn(singletonList("shop.carts"));
+        when(mongoClient.watch(anyList())).thenReturn(changes);
+    }
+
+    @Test
+    void it_should_resume_after_the_given_resume_token() {
+        BsonDocument resumeToken = new BsonDocument("_data", new BsonString("82"));
+
+        changeStreamSource.open(Optional.of(new BsonTimestamp(100, 1)), Optional.of(resumeToken));
+
+        verify(changes).resumeAfter(resumeToken);
+        verify(changes, never()).startAtOperationTime(any());
+    }
+
+    @Test
+    void it_should_start_at_the_checkpoint_without_resume_token() {
+        changeStreamSource.open(Optional.of(new BsonTimestamp(100, 1)), Optional.empty());
+
+        verify(changes).startAtOperationTime(new BsonTimestamp(100, 1));
+        verify(changes, never()).resumeAfter(any());
+    }
+
+    @Test
+    void it_should_take_the_last_timestamp_from_the_operation_time_of_the_cluster() {
+        MongoDatabase admin = mock(MongoDatabase.class);
+        when(mongoClient.getDatabase("admin")).thenReturn(admin);
+        when(admin.runCommand(new Document("ping", 1)))
+                .thenReturn(new Document("ok", 1.0).append("operationTime", new BsonTimestamp(200, 3)));
+
+        assertThat(changeStreamSource.lastTimestamp()).isEqualTo(new BsonTimestamp(200, 3));
+    }
+}
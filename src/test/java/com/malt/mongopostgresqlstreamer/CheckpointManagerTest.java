@@ -0,0 +1,87 @@
+package com.malt.mongopostgresqlstreamer;
+
+import com.mongodb.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.UpdateOptions;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class CheckpointManagerTest {
+
+    private MongoCollection<Document> checkpoints;
+    private MongoDatabase database;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        checkpoints = mock(MongoCollection.class);
+        database = mock(MongoDatabase.class);
+        when(database.getCollection("mongooplog")).thenReturn(checkpoints);
+    }
+
+    @Test
+    void it_should_write_each_checkpoint_by_default() {
+        CheckpointManager checkpointManager = new CheckpointManager(database, mock(MongoDatabase.class), "test", 1, 0);
+
+        checkpointManager.keepEventually(new BsonTimestamp(1, 1));
+        checkpointManager.keepEventually(new BsonTimestamp(1, 2));
+
+        verify(checkpoints, times(2)).updateOne(any(Bson.class), any(Bson.class), any(UpdateOptions.class));
+    }
+
+    @Test
+    void it_should_only_write_the_highest_timestamp_once_enough_operations_were_kept() {
+        CheckpointManager checkpointManager = new CheckpointManager(database, mock(MongoDatabase.class), "test", 3, 0);
+
+        checkpointManager.keepEventually(new BsonTimestamp(1, 1));
+        checkpointManager.keepEventually(new BsonTimestamp(1, 3));
+        verify(checkpoints, never()).updateOne(any(Bson.class), any(Bson.class), any(UpdateOptions.class));
+
+        checkpointManager.keepEventually(new BsonTimestamp(1, 2));
+        assertThat(writtenCheckpoint()).isEqualTo(new BsonTimestamp(1, 3));
+    }
+
+    @Test
+    void it_should_write_pending_checkpoint_on_shutdown() {
+        CheckpointManager checkpointManager = new CheckpointManager(database, mock(MongoDatabase.class), "test", 100, 0);
+
+        checkpointManager.keepEventually(new BsonTimestamp(2, 1));
+        checkpointManager.stopPeriodicFlush();
+
+        assertThat(writtenCheckpoint()).isEqualTo(new BsonTimestamp(2, 1));
+    }
+
+    @Test
+    void it_should_write_the_resume_token_of_the_last_applied_change() {
+        CheckpointManager checkpointManager = new CheckpointManager(database, mock(MongoDatabase.class), "test", 2, 0);
+        BsonDocument firstChange = new BsonDocument("_data", new BsonString("first"));
+        BsonDocument secondChange = new BsonDocument("_data", new BsonString("second"));
+
+        // both changes belong to the same transaction and share its timestamp
+        checkpointManager.keepEventually(new BsonTimestamp(3, 1), firstChange);
+        checkpointManager.keepEventually(new BsonTimestamp(3, 1), secondChange);
+
+        ArgumentCaptor<Bson> update = ArgumentCaptor.forClass(Bson.class);
+        verify(checkpoints).updateOne(any(Bson.class), update.capture(), any(UpdateOptions.class));
+        BsonDocument updateDocument = update.getValue().toBsonDocument(Document.class, MongoClient.getDefaultCodecRegistry());
+        assertThat(updateDocument.getDocument("$set").getDocument("resumeToken")).isEqualTo(secondChange);
+    }
+
+    private BsonTimestamp writtenCheckpoint() {
+        ArgumentCaptor<Bson> update = ArgumentCaptor.forClass(Bson.class);
+        verify(checkpoints).updateOne(any(Bson.class), update.capture(), any(UpdateOptions.class));
+        BsonDocument updateDocument = update.getValue().toBsonDocument(Document.class, MongoClient.getDefaultCodecRegistry());
+        return updateDocument.getDocument("$set").getTimestamp("ts");
+    }
+}
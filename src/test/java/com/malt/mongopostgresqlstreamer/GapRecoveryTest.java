@@ -0,0 +1,104 @@
+package com.malt.mongopostgresqlstreamer;
+
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Consumer;
+
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class GapRecoveryTest {
+
+    @Mock
+    private MappingsManager mappingsManager;
+    @Mock
+    private OplogSource oplogSource;
+    @Mock
+    private InitialImporter initialImporter;
+    @Mock
+    private OplogApplier oplogApplier;
+    @InjectMocks
+    private GapRecovery gapRecovery;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.initMocks(this);
+    }
+
+    @Test
+    void it_should_defer_the_entries_of_a_collection_until_it_is_imported_again() throws Exception {
+        CountDownLatch importAllowed = new CountDownLatch(1);
+        when(mappingsManager.mappedNamespaces()).thenReturn(singletonList("shop.carts"));
+        when(oplogSource.lastTimestamp()).thenReturn(new BsonTimestamp(100, 1));
+        doAnswer(invocation -> {
+            importAllowed.await();
+            invocation.<Consumer<String>>getArgument(1).accept("shop.carts");
+            return null;
+        }).when(initialImporter).resync(eq(singletonList("shop.carts")), any());
+
+        assertThat(gapRecovery.start()).isEqualTo(new BsonTimestamp(100, 1));
+        verify(oplogApplier).skipUpTo("shop.carts", new BsonTimestamp(100, 1));
+
+        Document deferred = entry("shop.carts", 110);
+        assertThat(gapRecovery.defers(entry("shop.carts", 90))).isTrue();
+        assertThat(gapRecovery.defers(deferred)).isTrue();
+        assertThat(gapRecovery.defers(entry("shop.users", 111))).isFalse();
+        assertThat(released()).isEmpty();
+        assertThat(gapRecovery.inProgress()).isTrue();
+
+        importAllowed.countDown();
+
+        assertThat(waitForDeferredEntries()).containsExactly(deferred);
+        assertThat(gapRecovery.inProgress()).isFalse();
+        assertThat(gapRecovery.defers(entry("shop.carts", 112))).isFalse();
+    }
+
+    @Test
+    void it_should_spill_deferred_entries_beyond_the_buffer_size() {
+        DeferredEntries deferredEntries = new DeferredEntries(2);
+        List<Document> entries = new ArrayList<>();
+        for (int time = 1; time <= 5; time++) {
+            Document entry = entry("shop.carts", time).append("o", new Document("_id", new ObjectId()));
+            entries.add(entry);
+            deferredEntries.add(entry);
+        }
+
+        List<List<Document>> chunks = new ArrayList<>();
+        deferredEntries.release(chunks::add);
+
+        assertThat(chunks).extracting(List::size).containsExactly(2, 2, 1);
+        assertThat(chunks.stream().flatMap(List::stream)).containsExactlyElementsOf(entries);
+    }
+
+    private List<Document> waitForDeferredEntries() throws InterruptedException {
+        List<Document> released = released();
+        for (int attempt = 0; attempt < 100 && released.isEmpty(); attempt++) {
+            Thread.sleep(10);
+            released = released();
+        }
+        return released;
+    }
+
+    private List<Document> released() {
+        List<Document> released = new ArrayList<>();
+        gapRecovery.releaseDeferredEntries(released::addAll);
+        return released;
+    }
+
+    private Document entry(String namespace, int time) {
+        return new Document("ts", new BsonTimestamp(time, 1)).append("op", "i").append("ns", namespace);
+    }
+}
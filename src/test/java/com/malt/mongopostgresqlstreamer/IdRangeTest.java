@@ -0,0 +1,70 @@
+package com.malt.mongopostgresqlstreamer;
+
+import org.bson.BsonDocument;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.mongodb.MongoClient.getDefaultCodecRegistry;
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IdRangeTest {
+
+    private static final CodecRegistry CODECS = getDefaultCodecRegistry();
+
+    @Test
+    void it_should_split_on_the_quantiles_of_the_sampled_ids() {
+        List<Object> sampledIds = new ArrayList<>();
+        for (int id = 40; id > 0; id--) {
+            sampledIds.add(id);
+        }
+
+        List<IdRange> ranges = IdRange.fromSample(sampledIds, 4);
+
+        assertThat(ranges).extracting(range -> range.filter().toBsonDocument(BsonDocument.class, CODECS).toJson())
+                .containsExactly(
+                        "{ \"_id\" : { \"$lt\" : 11 } }",
+                        "{ \"_id\" : { \"$gte\" : 11, \"$lt\" : 21 } }",
+                        "{ \"_id\" : { \"$gte\" : 21, \"$lt\" : 31 } }",
+                        "{ \"_id\" : { \"$gte\" : 31 } }",
+                        "{ \"_id\" : { \"$not\" : { \"$type\" : \"number\" } } }"
+                );
+    }
+
+    @Test
+    void it_should_not_split_ids_of_different_types() {
+        List<IdRange> ranges = IdRange.fromSample(asList(new ObjectId(), "cart-1", new ObjectId(), "cart-2"), 2);
+
+        assertThat(ranges).hasSize(1);
+        assertThat(ranges.get(0).filter().toBsonDocument(BsonDocument.class, CODECS)).isEmpty();
+    }
+
+    @Test
+    void it_should_sort_string_ids_the_way_mongodb_does() {
+        String replacementCharacter = "\uFFFD";
+        String emoji = "\uD83D\uDE00";
+
+        List<IdRange> ranges = IdRange.fromSample(asList(emoji, "b", replacementCharacter, "a"), 2);
+
+        assertThat(ranges.get(0).filter().toBsonDocument(BsonDocument.class, CODECS).getDocument("_id").getString("$lt").getValue())
+                .isEqualTo(replacementCharacter);
+    }
+
+    @Test
+    void it_should_keep_the_type_of_the_bounds_in_json() {
+        ObjectId lower = new ObjectId("5b9a4ea2a6e1b2312e7e7a10");
+        ObjectId upper = new ObjectId("5b9a4ea2a6e1b2312e7e7a20");
+        IdRange range = IdRange.fromSample(asList(lower, upper, new ObjectId("5b9a4ea2a6e1b2312e7e7a30")), 2).get(1);
+
+        IdRange stored = IdRange.fromJson(range.toJson());
+
+        assertThat(stored.filter().toBsonDocument(BsonDocument.class, CODECS))
+                .isEqualTo(range.filter().toBsonDocument(BsonDocument.class, CODECS));
+        assertThat(stored.filter().toBsonDocument(BsonDocument.class, CODECS).getDocument("_id").get("$gte").isObjectId())
+                .isTrue();
+    }
+}
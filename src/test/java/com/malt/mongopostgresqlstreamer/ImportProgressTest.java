@@ -0,0 +1,87 @@
+package com.malt.mongopostgresqlstreamer;
+
+import org.bson.BsonDocument;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+
+import static com.mongodb.MongoClient.getDefaultCodecRegistry;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class ImportProgressTest {
+
+    private static final String RANGE = "{ \"_id\" : { \"$lt\" : 11 } }";
+
+    private JdbcTemplate jdbcTemplate;
+    private ImportProgress importProgress;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate = mock(JdbcTemplate.class);
+        when(jdbcTemplate.queryForObject("SELECT current_schema()", String.class)).thenReturn("public");
+        importProgress = new ImportProgress(jdbcTemplate, true, "streamer");
+        importProgress.createTable();
+    }
+
+    @Test
+    void it_should_not_touch_postgresql_when_disabled() {
+        JdbcTemplate unusedJdbcTemplate = mock(JdbcTemplate.class);
+        ImportProgress disabled = new ImportProgress(unusedJdbcTemplate, false, "streamer");
+
+        disabled.createTable();
+        disabled.clear();
+
+        assertThat(disabled.isPlanned()).isFalse();
+        verifyZeroInteractions(unusedJdbcTemplate);
+    }
+
+    @Test
+    void it_should_persist_the_planned_ranges_and_constraints() {
+        List<IdRange> ranges = asList(IdRange.fromJson(RANGE), IdRange.fromJson("{ \"_id\" : { \"$gte\" : 11 } }"));
+
+        importProgress.plan("shop.carts", ranges, singletonList("shop.carts_mapping"));
+
+        verify(jdbcTemplate).update(startsWith("INSERT INTO public.mongo_streamer_import_progress"),
+                eq("streamer"), eq("shop.carts"), eq(RANGE));
+        verify(jdbcTemplate).update(startsWith("INSERT INTO public.mongo_streamer_import_progress"),
+                eq("streamer"), eq("shop.carts"), eq("{ \"_id\" : { \"$gte\" : 11 } }"));
+        verify(jdbcTemplate).update(startsWith("INSERT INTO public.mongo_streamer_import_progress"),
+                eq("streamer"), eq("shop.carts_mapping"), eq("constraints"));
+    }
+
+    @Test
+    void it_should_only_return_the_ranges_not_committed_yet() {
+        when(jdbcTemplate.queryForList(contains("NOT done"), eq(String.class), eq("streamer"), eq("shop.carts"), eq("constraints")))
+                .thenReturn(singletonList(RANGE));
+
+        List<IdRange> remainingRanges = importProgress.remainingRanges("shop.carts");
+
+        assertThat(remainingRanges).extracting(range -> range.filter().toBsonDocument(BsonDocument.class, getDefaultCodecRegistry()))
+                .containsExactly(BsonDocument.parse(RANGE));
+    }
+
+    @Test
+    void it_should_mark_an_imported_range_as_done() {
+        importProgress.rangeImported("shop.carts", IdRange.fromJson(RANGE));
+
+        verify(jdbcTemplate).update(startsWith("UPDATE public.mongo_streamer_import_progress SET done = TRUE"),
+                eq("streamer"), eq("shop.carts"), eq(RANGE));
+    }
+
+    @Test
+    void it_should_tell_whether_the_constraints_of_a_mapping_are_added() {
+        when(jdbcTemplate.queryForObject(contains("AND done"), eq(Long.class), eq("streamer"), eq("shop.carts_mapping"), eq("constraints")))
+                .thenReturn(1L);
+        when(jdbcTemplate.queryForObject(contains("AND done"), eq(Long.class), eq("streamer"), eq("shop.users_mapping"), eq("constraints")))
+                .thenReturn(0L);
+
+        assertThat(importProgress.constraintsAdded("shop.carts_mapping")).isTrue();
+        assertThat(importProgress.constraintsAdded("shop.users_mapping")).isFalse();
+    }
+}
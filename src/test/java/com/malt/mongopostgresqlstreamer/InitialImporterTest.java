@@ -0,0 +1,220 @@
+package com.malt.mongopostgresqlstreamer;
+
+import com.malt.mongopostgresqlstreamer.connectors.Connector;
+import com.malt.mongopostgresqlstreamer.model.DatabaseMapping;
+import com.malt.mongopostgresqlstreamer.model.Mappings;
+import com.malt.mongopostgresqlstreamer.model.TableMapping;
+import com.mongodb.MongoClient;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.MongoIterable;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class InitialImporterTest {
+
+    private static final IdRange REMAINING_RANGE = IdRange.fromJson("{ \"_id\" : { \"$gte\" : 11 } }");
+
+    @Mock
+    private MappingsManager mappingsManager;
+    @Mock
+    private MongoClient mongoClient;
+    @Mock
+    private Connector connector;
+    @Mock
+    private ImportProgress importProgress;
+    @Mock
+    private TransactionTemplate transactionTemplate;
+    @Mock
+    private MongoCollection<Document> collection;
+    @InjectMocks
+    private InitialImporter initialImporter;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        MockitoAnnotations.initMocks(this);
+        ReflectionTestUtils.setField(initialImporter, "connectors", singletonList(connector));
+
+        TableMapping tableMapping = new TableMapping();
+        tableMapping.setMappingName("carts");
+        tableMapping.setSourceCollection("carts");
+        DatabaseMapping databaseMapping = new DatabaseMapping();
+        databaseMapping.setName("shop");
+        databaseMapping.setTableMappings(singletonList(tableMapping));
+        Mappings mappings = new Mappings();
+        mappings.setDatabaseMappings(singletonList(databaseMapping));
+        mappingsManager.mappingConfigs = mappings;
+
+        MongoDatabase database = mock(MongoDatabase.class);
+        MongoIterable<String> collectionNames = mock(MongoIterable.class);
+        when(mongoClient.getDatabase("shop")).thenReturn(database);
+        when(database.listCollectionNames()).thenReturn(collectionNames);
+        when(collectionNames.iterator()).thenAnswer(invocation -> cursorOf("carts"));
+        when(database.getCollection("carts")).thenReturn(collection);
+
+        FindIterable<Document> documents = mock(FindIterable.class);
+        when(collection.find(any(Bson.class))).thenReturn(documents);
+        when(documents.noCursorTimeout(true)).thenReturn(documents);
+        when(documents.iterator()).thenAnswer(invocation -> cursorOf(new Document("_id", 12)));
+
+        when(transactionTemplate.execute(any())).thenAnswer(
+                invocation -> invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+        when(importProgress.isEnabled()).thenReturn(true);
+    }
+
+    @Test
+    void it_should_only_import_the_ranges_not_committed_yet_on_resume() {
+        when(importProgress.remainingRanges("shop.carts")).thenReturn(singletonList(REMAINING_RANGE));
+
+        initialImporter.resume();
+
+        verify(connector, never()).createTable(any(), any());
+        verify(collection).find(REMAINING_RANGE.filter());
+        verify(connector).addToBulkInsert(eq("carts"), any(), any());
+        verify(connector).finishBulkInsert(eq("carts"), any());
+        verify(importProgress).rangeImported("shop.carts", REMAINING_RANGE);
+    }
+
+    @Test
+    void it_should_not_add_the_constraints_again_once_added() {
+        when(importProgress.remainingRanges("shop.carts")).thenReturn(emptyList());
+        when(importProgress.constraintsAdded("shop.carts")).thenReturn(true);
+
+        initialImporter.resume();
+
+        verify(collection, never()).find(any(Bson.class));
+        verify(connector, never()).addConstraints(any(), any());
+        verify(importProgress, never()).markConstraintsAsAdded(any());
+    }
+
+    @Test
+    void it_should_mark_the_constraints_as_added_with_them() {
+        when(importProgress.remainingRanges("shop.carts")).thenReturn(emptyList());
+        when(importProgress.constraintsAdded("shop.carts")).thenReturn(false);
+
+        initialImporter.resume();
+
+        verify(connector).addConstraints(eq("carts"), any());
+        verify(importProgress).markConstraintsAsAdded("shop.carts");
+    }
+
+    @Test
+    void it_should_run_the_imports_concurrently() {
+        ReflectionTestUtils.setField(initialImporter, "importWorkers", 2);
+        CountDownLatch running = new CountDownLatch(2);
+        Runnable waitForTheOther = () -> {
+            running.countDown();
+            if (!awaitUninterruptibly(running)) {
+                throw new IllegalStateException("imports run one after the other");
+            }
+        };
+
+        initialImporter.runInParallel("Imported", asList(waitForTheOther, waitForTheOther));
+
+        assertThat(running.getCount()).isZero();
+    }
+
+    @Test
+    void it_should_interrupt_the_other_imports_on_failure() throws InterruptedException {
+        ReflectionTestUtils.setField(initialImporter, "importWorkers", 2);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        IllegalStateException failure = new IllegalStateException("copy failed");
+        Runnable endless = () -> {
+            try {
+                new CountDownLatch(1).await();
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+        };
+        Runnable failing = () -> {
+            throw failure;
+        };
+
+        assertThatThrownBy(() -> initialImporter.runInParallel("Imported", asList(endless, failing))).isSameAs(failure);
+        assertThat(interrupted.await(5, SECONDS)).isTrue();
+    }
+
+    @Test
+    void it_should_interrupt_the_imports_when_interrupted() throws InterruptedException {
+        ReflectionTestUtils.setField(initialImporter, "importWorkers", 2);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        Runnable endless = () -> {
+            started.countDown();
+            try {
+                new CountDownLatch(1).await();
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+        };
+        AtomicReference<Throwable> thrown = new AtomicReference<>();
+        Thread importer = new Thread(() -> {
+            try {
+                initialImporter.runInParallel("Imported", singletonList(endless));
+            } catch (RuntimeException e) {
+                thrown.set(e);
+            }
+        });
+
+        importer.start();
+        started.await();
+        importer.interrupt();
+        importer.join();
+
+        assertThat(thrown.get()).isInstanceOf(IllegalStateException.class);
+        assertThat(interrupted.await(5, SECONDS)).isTrue();
+    }
+
+    private static boolean awaitUninterruptibly(CountDownLatch latch) {
+        try {
+            return latch.await(5, SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> MongoCursor<T> cursorOf(T value) {
+        // created while stubbing, so answering instead of being stubbed itself
+        Iterator<T> iterator = singletonList(value).iterator();
+        return mock(MongoCursor.class, invocation -> {
+            switch (invocation.getMethod().getName()) {
+                case "hasNext":
+                    return iterator.hasNext();
+                case "next":
+                    return iterator.next();
+                case "forEachRemaining":
+                    iterator.forEachRemaining(invocation.getArgument(0));
+                    return null;
+                default:
+                    return null;
+            }
+        });
+    }
+}
@@ -8,6 +8,7 @@ import org.springframework.core.io.DefaultResourceLoader;
 import java.util.List;
 import java.util.Objects;
 
+import static java.util.Collections.singletonMap;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.groups.Tuple.tuple;
 
@@ -85,6 +86,20 @@ class MappingsManagerTest {
 
     }
 
+    @Test
+    void it_should_route_namespaces_to_their_mappings() {
+        mappingsManager.read();
+
+        assertThat(mappingsManager.routesFor("my_mongo_database.my_mongo_collection"))
+                .extracting(MappingRoute::getKey)
+                .containsExactly("my_mongo_database.my_mongo_collection", "my_mongo_database.custom_mapping_name");
+        assertThat(mappingsManager.routesFor("my_mongo_database.unknown")).isEmpty();
+
+        MappingRoute filteredRoute = mappingsManager.routesFor("my_mongo_database.filtered_collection").get(0);
+        assertThat(filteredRoute.accepts(FlattenMongoDocument.fromMap(singletonMap("name", "foo")))).isTrue();
+        assertThat(filteredRoute.accepts(FlattenMongoDocument.fromMap(singletonMap("name", "bar")))).isFalse();
+    }
+
     @Test
     void it_should_read_mapping_with_table_association() throws Exception {
         String filePath = this.getClass().getClassLoader().getResource("mapping-with-related-table.json").getPath();
@@ -0,0 +1,62 @@
+package com.malt.mongopostgresqlstreamer;
+
+import com.mongodb.ServerAddress;
+import com.mongodb.ServerCursor;
+import com.mongodb.client.MongoCursor;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class MergedOplogCursorTest {
+
+    @Test
+    void it_should_merge_the_shards_by_timestamp() {
+        MongoCursor<Document> firstShard = givenShard(entry(1, "i"), entry(4, "u"), entry(6, "n"));
+        MongoCursor<Document> secondShard = givenShard(entry(2, "i"), entry(3, "d"), entry(5, "n"));
+
+        MergedOplogCursor cursor = new MergedOplogCursor(asList(firstShard, secondShard));
+
+        List<Document> merged = new ArrayList<>();
+        for (Document document = cursor.tryNext(); document != null; document = cursor.tryNext()) {
+            merged.add(document);
+        }
+        assertThat(merged).extracting(document -> document.get("ts", BsonTimestamp.class).getTime())
+                .containsExactly(1, 2, 3, 4);
+    }
+
+    @Test
+    void it_should_wait_for_every_shard_before_returning_an_entry() {
+        MongoCursor<Document> busyShard = givenShard(entry(1, "i"), entry(2, "i"));
+        MongoCursor<Document> idleShard = givenShard();
+
+        MergedOplogCursor cursor = new MergedOplogCursor(asList(busyShard, idleShard));
+
+        assertThat(cursor.tryNext()).isNull();
+    }
+
+    @SuppressWarnings("unchecked")
+    private MongoCursor<Document> givenShard(Document... entries) {
+        MongoCursor<Document> cursor = mock(MongoCursor.class);
+        if (entries.length == 0) {
+            when(cursor.tryNext()).thenReturn(null);
+        } else {
+            // then nothing more is read
+            when(cursor.tryNext()).thenReturn(entries[0], Arrays.copyOfRange(entries, 1, entries.length + 1));
+        }
+        when(cursor.getServerCursor()).thenReturn(new ServerCursor(1, new ServerAddress()));
+        return cursor;
+    }
+
+    private Document entry(int time, String operation) {
+        return new Document("ts", new BsonTimestamp(time, 1)).append("op", operation).append("ns", "shop.carts");
+    }
+}
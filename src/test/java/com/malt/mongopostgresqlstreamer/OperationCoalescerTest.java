@@ -0,0 +1,81 @@
+package com.malt.mongopostgresqlstreamer;
+
+import com.malt.mongopostgresqlstreamer.connectors.Connector;
+import com.malt.mongopostgresqlstreamer.model.DatabaseMapping;
+import com.malt.mongopostgresqlstreamer.model.FlattenMongoDocument;
+import com.malt.mongopostgresqlstreamer.model.TableMapping;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+class OperationCoalescerTest {
+
+    @Test
+    void it_should_keep_the_removal_of_documents_inserted_then_removed() {
+        Document removal = remove("cart-1");
+
+        List<Document> coalesced = OperationCoalescer.coalesce(asList(
+                insert("cart-1"), update("cart-1"), update("cart-2"), removal
+        ));
+
+        assertThat(coalesced).extracting(OperationCoalescer::documentIdOf).containsExactly("cart-1", "cart-2");
+        assertThat(coalesced.get(0)).isSameAs(removal);
+    }
+
+    @Test
+    void it_should_remove_an_existing_row_when_its_insertion_and_removal_are_replayed() {
+        TableMapping tableMapping = new TableMapping();
+        tableMapping.setMappingName("carts");
+        DatabaseMapping databaseMapping = new DatabaseMapping();
+        Connector connector = mock(Connector.class);
+
+        // the row was written by the initial load, or by the batch applied before a crash
+        TableOperations tableOperations = new TableOperations(databaseMapping, tableMapping);
+        for (Document entry : OperationCoalescer.coalesce(asList(insert("cart-1"), remove("cart-1")))) {
+            FlattenMongoDocument document = FlattenMongoDocument.fromDocument((Document) entry.get("o"));
+            if ("d".equals(entry.getString("op"))) {
+                tableOperations.remove(document);
+            } else {
+                tableOperations.upsert(document);
+            }
+        }
+        tableOperations.applyTo(connector);
+
+        verify(connector).removeAll(eq("carts"), argThat(removals -> removals.size() == 1), eq(databaseMapping));
+        verify(connector, never()).upsertAll(any(), any(), any());
+    }
+
+    @Test
+    void it_should_keep_only_the_removal_and_the_last_insertion_of_an_existing_document() {
+        Document removal = remove("cart-1");
+        Document reinsertion = insert("cart-1");
+
+        List<Document> coalesced = OperationCoalescer.coalesce(asList(
+                update("cart-1"), update("cart-1"), removal, insert("cart-1"), remove("cart-1"), reinsertion
+        ));
+
+        assertThat(coalesced).containsExactly(removal, reinsertion);
+    }
+
+    private Document insert(String id) {
+        return new Document("op", "i").append("ns", "shop.carts").append("o", new Document("_id", id));
+    }
+
+    private Document update(String id) {
+        return new Document("op", "u").append("ns", "shop.carts")
+                .append("o", new Document("$set", new Document("total", 12)))
+                .append("o2", new Document("_id", id));
+    }
+
+    private Document remove(String id) {
+        return new Document("op", "d").append("ns", "shop.carts").append("o", new Document("_id", id));
+    }
+}
@@ -0,0 +1,237 @@
+package com.malt.mongopostgresqlstreamer;
+
+import com.malt.mongopostgresqlstreamer.connectors.Connector;
+import com.malt.mongopostgresqlstreamer.model.DatabaseMapping;
+import com.malt.mongopostgresqlstreamer.model.FieldMapping;
+import com.malt.mongopostgresqlstreamer.model.FlattenMongoDocument;
+import com.malt.mongopostgresqlstreamer.model.TableMapping;
+import com.mongodb.MongoClient;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.BsonDocument;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.mongodb.MongoClient.getDefaultCodecRegistry;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class OplogApplierTest {
+
+    @Mock
+    private MappingsManager mappingsManager;
+    @Mock
+    private MongoClient mongoClient;
+    @Mock
+    private Connector connector;
+    @Mock
+    private TransactionTemplate transactionTemplate;
+    @Mock
+    private PostgreSqlCheckpointStore checkpointStore;
+    @Mock
+    private MongoDatabase database;
+    @Spy
+    private MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    @InjectMocks
+    private OplogApplier oplogApplier;
+
+    private final DatabaseMapping databaseMapping = new DatabaseMapping();
+    private final Map<String, Map<Integer, Document>> storedDocuments = new HashMap<>();
+    private final Map<String, List<List<Integer>>> lookups = new HashMap<>();
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.initMocks(this);
+        ReflectionTestUtils.setField(oplogApplier, "connectors", singletonList(connector));
+        databaseMapping.setName("shop");
+        when(mongoClient.getDatabase("shop")).thenReturn(database);
+        givenCollection("users");
+        givenCollection("carts");
+    }
+
+    @Test
+    void it_should_look_the_updated_documents_up_with_one_query_per_collection() {
+        givenStored("users", 1, "John");
+        givenStored("users", 2, "Jane");
+        givenStored("carts", 1, "cart of John");
+
+        oplogApplier.apply(asList(update("users", 1), update("carts", 1), update("users", 2)), 0);
+
+        assertThat(lookups.get("users")).containsExactly(asList(1, 2));
+        assertThat(lookups.get("carts")).containsExactly(singletonList(1));
+    }
+
+    @Test
+    void it_should_split_the_lookup_of_large_batches_in_chunks() {
+        List<Document> batch = new ArrayList<>();
+        for (int id = 0; id < 2500; id++) {
+            givenStored("users", id, "user " + id);
+            batch.add(update("users", id));
+        }
+
+        oplogApplier.apply(batch, 0);
+
+        assertThat(lookups.get("users")).extracting(List::size).containsExactly(1000, 1000, 500);
+        assertThat(upserted("users")).hasSize(2500);
+    }
+
+    @Test
+    void it_should_match_the_looked_up_documents_by_id_and_skip_the_removed_ones() {
+        givenStored("users", 2, "Jane");
+        givenStored("users", 1, "John");
+
+        oplogApplier.apply(asList(update("users", 1), update("users", 2), update("users", 3)), 0);
+
+        assertThat(upserted("users"))
+                .extracting(document -> document.getValues().get("_id") + " " + document.getValues().get("name"))
+                .containsExactlyInAnyOrder("1 John", "2 Jane");
+    }
+
+    @Test
+    void it_should_count_the_updates_looked_up_because_their_format_is_not_read() {
+        givenStored("users", 1, "John");
+        Document arrayUpdate = update("users", 1).append("o", new Document("$v", 2).append("diff",
+                new Document("stags", new Document("a", true).append("u1", "java"))));
+
+        oplogApplier.apply(asList(arrayUpdate, update("users", 2)), 0);
+
+        assertThat(meterRegistry.counter("streamer.update.delta.fallback").count()).isEqualTo(1);
+        assertThat(lookups.get("users")).containsExactly(asList(1, 2));
+    }
+
+    @Test
+    void it_should_write_the_position_of_the_partition_with_the_batch() {
+        givenStored("users", 1, "John");
+        givenStored("users", 2, "Jane");
+        List<Document> batch = asList(update("users", 1), update("users", 2));
+        givenCheckpointStoredInPostgreSql(batch);
+
+        oplogApplier.apply(batch, 3);
+
+        InOrder inOrder = inOrder(transactionTemplate, connector, checkpointStore);
+        inOrder.verify(transactionTemplate).execute(any());
+        inOrder.verify(connector).upsertAll(eq("users"), any(), eq(databaseMapping));
+        inOrder.verify(checkpointStore).write(3, new BsonTimestamp(100, 2));
+    }
+
+    @Test
+    void it_should_not_write_the_position_when_the_batch_fails() {
+        List<Document> batch = singletonList(update("users", 1));
+        givenCheckpointStoredInPostgreSql(batch);
+        givenStored("users", 1, "John");
+        IllegalStateException failure = new IllegalStateException("connection lost");
+        doThrow(failure).when(connector).upsertAll(any(), any(), any());
+
+        assertThatThrownBy(() -> oplogApplier.apply(batch, 0)).isSameAs(failure);
+        verify(checkpointStore, never()).write(anyInt(), any());
+    }
+
+    @Test
+    void it_should_skip_a_batch_already_applied() {
+        List<Document> batch = singletonList(update("users", 1));
+        when(checkpointStore.isEnabled()).thenReturn(true);
+        when(checkpointStore.notAppliedYet(batch, 0)).thenReturn(emptyList());
+
+        oplogApplier.apply(batch, 0);
+
+        verifyZeroInteractions(transactionTemplate, connector);
+        verify(checkpointStore, never()).write(anyInt(), any());
+    }
+
+    private void givenCheckpointStoredInPostgreSql(List<Document> notAppliedYet) {
+        when(checkpointStore.isEnabled()).thenReturn(true);
+        when(checkpointStore.notAppliedYet(any(), anyInt())).thenReturn(notAppliedYet);
+        when(transactionTemplate.execute(any())).thenAnswer(
+                invocation -> invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+    }
+
+    @SuppressWarnings("unchecked")
+    private Collection<FlattenMongoDocument> upserted(String mappingName) {
+        ArgumentCaptor<Collection<FlattenMongoDocument>> upserts = ArgumentCaptor.forClass(Collection.class);
+        verify(connector).upsertAll(eq(mappingName), upserts.capture(), eq(databaseMapping));
+        return upserts.getValue();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void givenCollection(String name) {
+        TableMapping tableMapping = new TableMapping();
+        tableMapping.setMappingName(name);
+        tableMapping.setSourceCollection(name);
+        tableMapping.setDestinationName(name);
+        tableMapping.setPrimaryKey("id");
+        tableMapping.setFieldMappings(asList(
+                new FieldMapping("_id", "id", "INTEGER", false, null, null),
+                new FieldMapping("name", "name", "TEXT", false, null, null)
+        ));
+        when(mappingsManager.routesFor("shop." + name)).thenReturn(singletonList(new MappingRoute(databaseMapping, tableMapping)));
+
+        Map<Integer, Document> documents = new HashMap<>();
+        storedDocuments.put(name, documents);
+        MongoCollection<Document> collection = mock(MongoCollection.class);
+        when(database.getCollection(name)).thenReturn(collection);
+        when(collection.find(any(Bson.class))).thenAnswer(invocation -> {
+            List<Integer> ids = idsOf(invocation.getArgument(0));
+            lookups.computeIfAbsent(name, notFound -> new ArrayList<>()).add(ids);
+            // returned most recent first, as an index could
+            List<Document> found = ids.stream().filter(documents::containsKey).map(documents::get).collect(toList());
+            Collections.reverse(found);
+            return mock(FindIterable.class, into -> {
+                if ("into".equals(into.getMethod().getName())) {
+                    Collection<Document> target = into.getArgument(0);
+                    target.addAll(found);
+                    return target;
+                }
+                return null;
+            });
+        });
+    }
+
+    private void givenStored(String collection, int id, String name) {
+        storedDocuments.get(collection).put(id, new Document("_id", id).append("name", name));
+    }
+
+    private static List<Integer> idsOf(Bson filter) {
+        return filter.toBsonDocument(BsonDocument.class, getDefaultCodecRegistry())
+                .getDocument("_id").getArray("$in").stream()
+                .map(id -> id.asInt32().getValue())
+                .collect(toList());
+    }
+
+    private static Document update(String collection, int id) {
+        return new Document("ts", new BsonTimestamp(100, id))
+                .append("op", "u")
+                .append("ns", "shop." + collection)
+                .append("o", new Document("$set", new Document("name", "changed")))
+                .append("o2", new Document("_id", id));
+    }
+}
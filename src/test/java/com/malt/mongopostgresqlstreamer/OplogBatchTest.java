@@ -0,0 +1,49 @@
+package com.malt.mongopostgresqlstreamer;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class OplogBatchTest {
+
+    @Test
+    void it_should_be_ready_once_full() {
+        OplogBatch batch = new OplogBatch(2, Long.MAX_VALUE);
+        assertThat(batch.isReady()).isFalse();
+
+        batch.add(entry(1));
+        assertThat(batch.isReady()).isFalse();
+
+        batch.add(entry(2));
+        assertThat(batch.isReady()).isTrue();
+        assertThat(batch.last()).isEqualTo(entry(2));
+    }
+
+    @Test
+    void it_should_be_ready_once_its_first_entry_waited_long_enough() throws InterruptedException {
+        OplogBatch batch = new OplogBatch(100, 20);
+
+        batch.add(entry(1));
+        assertThat(batch.isReady()).isFalse();
+
+        Thread.sleep(30);
+        assertThat(batch.isReady()).isTrue();
+    }
+
+    @Test
+    void it_should_wait_again_once_cleared() {
+        OplogBatch batch = new OplogBatch(1, 0);
+        batch.add(entry(1));
+        assertThat(batch.isReady()).isTrue();
+
+        batch.clear();
+
+        assertThat(batch.isEmpty()).isTrue();
+        assertThat(batch.isReady()).isFalse();
+    }
+
+    private static Document entry(int id) {
+        return new Document("op", "i").append("o", new Document("_id", id));
+    }
+}
@@ -0,0 +1,70 @@
+package com.malt.mongopostgresqlstreamer;
+
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Collections.singletonList;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class OplogCollectionSourceTest {
+
+    @Mock
+    private MappingsManager mappingsManager;
+    @Mock
+    private CheckpointManager checkpointManager;
+    @Mock
+    private MongoDatabase oplog;
+    @InjectMocks
+    private OplogCollectionSource oplogCollectionSource;
+
+    private FindIterable<Document> entries;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        MockitoAnnotations.initMocks(this);
+        when(mappingsManager.mappedNamespaces()).thenReturn(singletonList("shop.carts"));
+
+        MongoCollection<Document> oplogCollection = mock(MongoCollection.class);
+        entries = mock(FindIterable.class, RETURNS_SELF);
+        when(oplog.getCollection("oplog.rs")).thenReturn(oplogCollection);
+        when(oplogCollection.find()).thenReturn(entries);
+        when(oplogCollection.find(any(Bson.class))).thenReturn(entries);
+        when(entries.first()).thenReturn(new Document("ts", new BsonTimestamp(100, 1)));
+    }
+
+    @Test
+    void it_should_open_the_cursor_with_the_configured_options() {
+        ReflectionTestUtils.setField(oplogCollectionSource, "cursorBatchSize", 500);
+        ReflectionTestUtils.setField(oplogCollectionSource, "maxAwaitTime", 2000L);
+
+        oplogCollectionSource.open(Optional.of(new BsonTimestamp(120, 1)), Optional.empty());
+
+        verify(entries).oplogReplay(true);
+        verify(entries).batchSize(500);
+        verify(entries).maxAwaitTime(2000, TimeUnit.MILLISECONDS);
+        verify(entries).iterator();
+    }
+
+    @Test
+    void it_should_read_from_the_oldest_entry_when_the_checkpoint_is_not_covered() {
+        oplogCollectionSource.open(Optional.of(new BsonTimestamp(99, 1)), Optional.empty());
+
+        verify(entries, never()).oplogReplay(true);
+        verify(entries).iterator();
+    }
+}
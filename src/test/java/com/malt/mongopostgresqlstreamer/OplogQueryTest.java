@@ -0,0 +1,89 @@
+package com.malt.mongopostgresqlstreamer;
+
+import com.mongodb.CursorType;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import org.bson.BsonDocument;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static com.mongodb.MongoClient.getDefaultCodecRegistry;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+class OplogQueryTest {
+
+    @Test
+    void it_should_compare_the_checkpoint_with_the_oldest_entry_of_the_oplog() {
+        MongoCollection<Document> oplog = givenOplog();
+        when(oplog.find().first()).thenReturn(new Document("ts", new BsonTimestamp(100, 1)));
+
+        assertThat(OplogQuery.covers(oplog, new BsonTimestamp(120, 1))).isTrue();
+        assertThat(OplogQuery.covers(oplog, new BsonTimestamp(99, 3))).isFalse();
+        verify(oplog, never()).find(any(Bson.class));
+    }
+
+    @Test
+    void it_should_seek_to_the_checkpoint() {
+        MongoCollection<Document> oplog = givenOplog();
+        OplogQuery query = new OplogQuery(singletonList("shop.carts"), 0, 0, false);
+
+        query.tail(oplog, Optional.empty());
+        verify(oplog.find(), never()).oplogReplay(true);
+
+        query.tail(oplog, Optional.of(new BsonTimestamp(100, 1)));
+        verify(oplog.find()).oplogReplay(true);
+    }
+
+    @Test
+    void it_should_only_fetch_the_fields_applied() {
+        MongoCollection<Document> oplog = givenOplog();
+
+        new OplogQuery(singletonList("shop.carts"), 0, 0, false).tail(oplog, Optional.empty());
+
+        ArgumentCaptor<Bson> projection = ArgumentCaptor.forClass(Bson.class);
+        verify(oplog.find()).projection(projection.capture());
+        assertThat(projection.getValue().toBsonDocument(BsonDocument.class, getDefaultCodecRegistry()).keySet())
+                .containsExactly("ts", "op", "ns", "o", "o2", "lsid", "txnNumber");
+        verify(oplog.find()).cursorType(CursorType.TailableAwait);
+    }
+
+    @Test
+    void it_should_set_the_batch_size_and_the_await_time_when_configured() {
+        MongoCollection<Document> oplog = givenOplog();
+
+        new OplogQuery(singletonList("shop.carts"), 500, 2000, false).tail(oplog, Optional.empty());
+
+        verify(oplog.find()).batchSize(500);
+        verify(oplog.find()).maxAwaitTime(2000, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    void it_should_keep_the_driver_and_server_defaults_otherwise() {
+        MongoCollection<Document> oplog = givenOplog();
+
+        new OplogQuery(singletonList("shop.carts"), 0, 0, false).tail(oplog, Optional.empty());
+
+        verify(oplog.find(), never()).batchSize(anyInt());
+        verify(oplog.find(), never()).maxAwaitTime(anyLong(), any());
+    }
+
+    @SuppressWarnings("unchecked")
+    private MongoCollection<Document> givenOplog() {
+        MongoCollection<Document> oplog = mock(MongoCollection.class);
+        FindIterable<Document> documents = mock(FindIterable.class, RETURNS_SELF);
+        when(oplog.find()).thenReturn(documents);
+        when(oplog.find(any(Bson.class))).thenReturn(documents);
+        return oplog;
+    }
+}
@@ -0,0 +1,129 @@
+package com.malt.mongopostgresqlstreamer;
+
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+class PartitionedApplierTest {
+
+    private final OplogApplier oplogApplier = mock(OplogApplier.class);
+    private final Map<Integer, List<Document>> appliedPerPartition = new ConcurrentHashMap<>();
+    private PartitionedApplier partitionedApplier;
+
+    @AfterEach
+    void tearDown() {
+        if (partitionedApplier != null) {
+            partitionedApplier.close();
+        }
+    }
+
+    @Test
+    void it_should_apply_the_changes_of_a_document_in_order_on_the_same_partition() throws InterruptedException {
+        givenApplierWith(4);
+        Document insert = entry(1, "i", 1);
+        Document update = entry(2, "u", 1);
+        Document removal = entry(3, "d", 1);
+
+        partitionedApplier.dispatch(insert);
+        partitionedApplier.dispatch(update);
+        partitionedApplier.dispatch(removal);
+        partitionedApplier.drain();
+
+        assertThat(appliedPerPartition).hasSize(1);
+        assertThat(appliedPerPartition.values().iterator().next()).containsExactly(insert, update, removal);
+    }
+
+    @Test
+    void it_should_spread_different_documents_across_partitions() throws InterruptedException {
+        givenApplierWith(4);
+
+        for (int id = 0; id < 100; id++) {
+            partitionedApplier.dispatch(entry(id + 1, "i", id));
+        }
+        partitionedApplier.drain();
+
+        assertThat(appliedPerPartition.size()).isGreaterThan(1);
+        assertThat(appliedPerPartition.values().stream().mapToInt(List::size).sum()).isEqualTo(100);
+    }
+
+    @Test
+    void it_should_report_the_last_entry_before_which_every_entry_is_applied() throws InterruptedException {
+        givenApplierWith(2);
+        Document blocked = entry(1, "i", 0);
+        Document next = entryOnAnotherPartition(blocked);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch nextApplied = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            List<Document> batch = invocation.getArgument(0);
+            if (batch.contains(blocked)) {
+                release.await();
+            } else {
+                nextApplied.countDown();
+            }
+            return null;
+        }).when(oplogApplier).apply(anyList(), anyInt());
+
+        partitionedApplier.dispatch(blocked);
+        partitionedApplier.dispatch(next);
+        nextApplied.await();
+
+        assertThat(partitionedApplier.appliedUpTo()).isEmpty();
+
+        release.countDown();
+
+        assertThat(partitionedApplier.drain()).containsSame(next);
+    }
+
+    @Test
+    void it_should_rethrow_the_failure_of_a_worker() throws InterruptedException {
+        givenApplierWith(2);
+        IllegalStateException failure = new IllegalStateException("connection lost");
+        doThrow(failure).when(oplogApplier).apply(anyList(), anyInt());
+
+        partitionedApplier.dispatch(entry(1, "i", 1));
+
+        assertThatThrownBy(() -> partitionedApplier.drain()).isSameAs(failure);
+    }
+
+    private void givenApplierWith(int workers) {
+        doAnswer(invocation -> {
+            List<Document> batch = invocation.getArgument(0);
+            appliedPerPartition.computeIfAbsent(invocation.getArgument(1), partition -> new CopyOnWriteArrayList<>())
+                    .addAll(new ArrayList<>(batch));
+            return null;
+        }).when(oplogApplier).apply(anyList(), anyInt());
+        partitionedApplier = new PartitionedApplier(oplogApplier, workers, 1, 0);
+    }
+
+    private Document entryOnAnotherPartition(Document entry) {
+        for (int id = 1; ; id++) {
+            Document other = entry(2, "i", id);
+            if (partitionedApplier.partitionOf(other) != partitionedApplier.partitionOf(entry)) {
+                return other;
+            }
+        }
+    }
+
+    private static Document entry(int time, String op, int id) {
+        Document entry = new Document("ts", new BsonTimestamp(time, 1))
+                .append("op", op)
+                .append("ns", "shop.carts");
+        return "u".equals(op)
+                ? entry.append("o2", new Document("_id", id)).append("o", new Document("$set", new Document("total", time)))
+                : entry.append("o", new Document("_id", id));
+    }
+}
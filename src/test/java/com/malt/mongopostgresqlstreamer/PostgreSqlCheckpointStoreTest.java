@@ -0,0 +1,78 @@
+package com.malt.mongopostgresqlstreamer;
+
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import java.sql.ResultSet;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class PostgreSqlCheckpointStoreTest {
+
+    private JdbcTemplate jdbcTemplate;
+    private PostgreSqlCheckpointStore checkpointStore;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate = mock(JdbcTemplate.class);
+        checkpointStore = new PostgreSqlCheckpointStore(jdbcTemplate, "postgresql", "streamer", "oplog");
+    }
+
+    @Test
+    void it_should_not_be_used_with_a_change_stream() {
+        PostgreSqlCheckpointStore changeStreamStore = new PostgreSqlCheckpointStore(jdbcTemplate, "postgresql", "streamer", "changestream");
+
+        assertThatThrownBy(changeStreamStore::createTable).isInstanceOf(IllegalStateException.class);
+        verifyZeroInteractions(jdbcTemplate);
+    }
+
+    @Test
+    void it_should_skip_the_entries_already_applied_by_each_partition() throws Exception {
+        givenStoredPositions(10, 20);
+
+        checkpointStore.load(2);
+
+        List<Document> entries = asList(entry(5), entry(15));
+        assertThat(checkpointStore.notAppliedYet(entries, 0)).containsExactly(entry(15));
+        assertThat(checkpointStore.notAppliedYet(entries, 1)).isEmpty();
+        assertThat(checkpointStore.isApplied(new BsonTimestamp(15, 0))).isTrue();
+        assertThat(checkpointStore.isApplied(new BsonTimestamp(25, 0))).isFalse();
+    }
+
+    @Test
+    void it_should_restart_every_partition_from_the_oldest_position_when_the_partitions_changed() throws Exception {
+        givenStoredPositions(10, 20);
+
+        checkpointStore.load(3);
+
+        verify(jdbcTemplate).update(startsWith("DELETE"), eq("streamer"));
+        verify(jdbcTemplate, times(3)).update(startsWith("INSERT"), eq("streamer"), anyInt(), eq(new BsonTimestamp(10, 0).getValue()));
+        assertThat(checkpointStore.notAppliedYet(asList(entry(15)), 1)).containsExactly(entry(15));
+    }
+
+    private void givenStoredPositions(int... times) throws Exception {
+        ResultSet row = mock(ResultSet.class);
+        doAnswer(invocation -> {
+            RowCallbackHandler handler = invocation.getArgument(1);
+            for (int partition = 0; partition < times.length; partition++) {
+                when(row.getInt("partition")).thenReturn(partition);
+                when(row.getLong("ts")).thenReturn(new BsonTimestamp(times[partition], 0).getValue());
+                handler.processRow(row);
+            }
+            return null;
+        }).when(jdbcTemplate).query(anyString(), any(RowCallbackHandler.class), eq("streamer"));
+    }
+
+    private Document entry(int time) {
+        return new Document("ts", new BsonTimestamp(time, 0)).append("op", "i").append("ns", "shop.carts");
+    }
+}
@@ -0,0 +1,62 @@
+package com.malt.mongopostgresqlstreamer;
+
+import com.mongodb.MongoQueryException;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoCursor;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.*;
+
+class ReadAheadCursorTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void it_should_return_every_entry_read_before_the_cursor_died() {
+        MongoCursor<Document> cursor = mock(MongoCursor.class);
+        when(cursor.tryNext()).thenReturn(entry(1), entry(2), entry(3), null);
+        when(cursor.getServerCursor()).thenReturn(null);
+
+        List<Document> consumed = new ArrayList<>();
+        try (ReadAheadCursor readAhead = new ReadAheadCursor(cursor, 1)) {
+            while (readAhead.hasNext()) {
+                consumed.add(readAhead.next());
+            }
+            assertThat(readAhead.getServerCursor()).isNull();
+        }
+
+        assertThat(consumed).containsExactly(entry(1), entry(2), entry(3));
+        verify(cursor).close();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void it_should_rethrow_reading_failures_after_the_entries_read_before() {
+        MongoCursor<Document> cursor = mock(MongoCursor.class);
+        MongoQueryException failure = new MongoQueryException(new ServerAddress(), 136, "CappedPositionLost");
+        when(cursor.tryNext()).thenReturn(entry(1)).thenThrow(failure);
+
+        try (ReadAheadCursor readAhead = new ReadAheadCursor(cursor, 10)) {
+            Document first = null;
+            while (first == null) {
+                first = readAhead.tryNext();
+            }
+            assertThat(first).isEqualTo(entry(1));
+
+            assertThatThrownBy(() -> {
+                while (true) {
+                    readAhead.tryNext();
+                }
+            }).isSameAs(failure);
+        }
+    }
+
+    private static Document entry(int id) {
+        return new Document("op", "i").append("o", new Document("_id", id));
+    }
+}
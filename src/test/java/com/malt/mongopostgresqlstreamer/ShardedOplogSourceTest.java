@@ -0,0 +1,117 @@
+package com.malt.mongopostgresqlstreamer;
+
+import com.mongodb.MongoClient;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import org.bson.BsonDocument;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Optional;
+
+import static com.mongodb.MongoClient.getDefaultCodecRegistry;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class ShardedOplogSourceTest {
+
+    private static final String SHARD_HOST = "shard01/mongo1:27018,mongo2:27018";
+
+    @Mock
+    private MappingsManager mappingsManager;
+    @Mock
+    private MongoClient mongoClient;
+    @Mock
+    private MongoClient shardClient;
+    @Mock
+    private MongoCollection<Document> oplog;
+    @Spy
+    @InjectMocks
+    private ShardedOplogSource shardedOplogSource;
+
+    private FindIterable<Document> oplogEntries;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        MockitoAnnotations.initMocks(this);
+        ReflectionTestUtils.setField(shardedOplogSource, "resumeWindow", 30);
+        when(mappingsManager.mappedNamespaces()).thenReturn(singletonList("shop.carts"));
+
+        MongoDatabase config = mock(MongoDatabase.class);
+        MongoCollection<Document> shards = mock(MongoCollection.class);
+        FindIterable<Document> shardList = mock(FindIterable.class);
+        when(mongoClient.getDatabase("config")).thenReturn(config);
+        when(config.getCollection("shards")).thenReturn(shards);
+        when(shards.find()).thenReturn(shardList);
+        when(shardList.into(any())).thenAnswer(invocation -> {
+            List<Document> into = invocation.getArgument(0);
+            into.add(new Document("_id", "shard01").append("host", SHARD_HOST));
+            return into;
+        });
+
+        MongoDatabase local = mock(MongoDatabase.class);
+        when(shardClient.getDatabase("local")).thenReturn(local);
+        when(local.getCollection("oplog.rs")).thenReturn(oplog);
+        doReturn(shardClient).when(shardedOplogSource).connect(SHARD_HOST);
+
+        oplogEntries = mock(FindIterable.class, RETURNS_SELF);
+        when(oplog.find()).thenReturn(oplogEntries);
+        when(oplog.find(any(Bson.class))).thenReturn(oplogEntries);
+        when(oplogEntries.first()).thenReturn(new Document("ts", new BsonTimestamp(900, 1)));
+        when(oplogEntries.iterator()).thenReturn(mock(MongoCursor.class));
+    }
+
+    @Test
+    void it_should_resume_every_shard_a_window_before_the_checkpoint() {
+        shardedOplogSource.open(Optional.of(new BsonTimestamp(1000, 5)), Optional.empty()).close();
+
+        assertThat(tailedFrom()).isEqualTo(new BsonTimestamp(970, 0));
+    }
+
+    @Test
+    void it_should_resume_a_shard_from_the_checkpoint_when_the_window_is_not_in_its_oplog() {
+        when(oplogEntries.first()).thenReturn(new Document("ts", new BsonTimestamp(980, 1)));
+
+        shardedOplogSource.open(Optional.of(new BsonTimestamp(1000, 5)), Optional.empty()).close();
+
+        assertThat(tailedFrom()).isEqualTo(new BsonTimestamp(1000, 5));
+    }
+
+    @Test
+    void it_should_reuse_the_client_of_a_shard_and_close_it_on_shutdown() {
+        shardedOplogSource.open(Optional.empty(), Optional.empty()).close();
+        shardedOplogSource.covers(new BsonTimestamp(1000, 5));
+        shardedOplogSource.lastTimestamp();
+
+        verify(shardedOplogSource).connect(SHARD_HOST);
+        verify(shardClient, never()).close();
+
+        shardedOplogSource.close();
+
+        verify(shardClient).close();
+    }
+
+    private BsonTimestamp tailedFrom() {
+        ArgumentCaptor<Bson> filter = ArgumentCaptor.forClass(Bson.class);
+        verify(oplog).find(filter.capture());
+        return filter.getValue()
+                .toBsonDocument(BsonDocument.class, getDefaultCodecRegistry())
+                .getDocument("ts")
+                .getTimestamp("$gt");
+    }
+}
@@ -0,0 +1,70 @@
+package com.malt.mongopostgresqlstreamer;
+
+import org.bson.BsonTimestamp;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.Optional;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class StreamerApplicationTest {
+
+    private static final BsonTimestamp IMPORT_START = new BsonTimestamp(100, 1);
+    private static final BsonTimestamp LAST_TIMESTAMP = new BsonTimestamp(200, 1);
+
+    @Mock
+    private OplogStreamer oplogStreamer;
+    @Mock
+    private InitialImporter initialImporter;
+    @Mock
+    private CheckpointManager checkpointManager;
+    @Mock
+    private OplogSource oplogSource;
+    @Mock
+    private CatchUpManager catchUpManager;
+    @Mock
+    private PostgreSqlCheckpointStore checkpointStore;
+    @Mock
+    private ImportProgress importProgress;
+    @InjectMocks
+    private StreamerApplication streamerApplication;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.initMocks(this);
+        when(checkpointManager.getLastKnown()).thenReturn(Optional.empty());
+        when(checkpointManager.getInterruptedImportStart()).thenReturn(Optional.of(IMPORT_START));
+        when(oplogSource.lastTimestamp()).thenReturn(LAST_TIMESTAMP);
+    }
+
+    @Test
+    void it_should_resume_an_interrupted_initial_load_from_its_start() {
+        when(importProgress.isPlanned()).thenReturn(true);
+
+        streamerApplication.run(null);
+
+        verify(initialImporter).resume();
+        verify(initialImporter, never()).start();
+        verify(checkpointManager, never()).storeImportStart(any());
+        verify(checkpointManager).keep(IMPORT_START);
+        verify(oplogStreamer).watchFromCheckpoint(Optional.of(IMPORT_START));
+    }
+
+    @Test
+    void it_should_start_a_new_initial_load_when_the_interrupted_one_was_not_planned() {
+        when(importProgress.isPlanned()).thenReturn(false);
+
+        streamerApplication.run(null);
+
+        verify(checkpointManager).storeImportStart(LAST_TIMESTAMP);
+        verify(initialImporter).start();
+        verify(initialImporter, never()).resume();
+        verify(checkpointManager).keep(LAST_TIMESTAMP);
+        verify(oplogStreamer).watchFromCheckpoint(Optional.of(LAST_TIMESTAMP));
+    }
+}
@@ -0,0 +1,52 @@
+package com.malt.mongopostgresqlstreamer;
+
+import com.malt.mongopostgresqlstreamer.connectors.Connector;
+import com.malt.mongopostgresqlstreamer.model.DatabaseMapping;
+import com.malt.mongopostgresqlstreamer.model.FlattenMongoDocument;
+import com.malt.mongopostgresqlstreamer.model.TableMapping;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class TableOperationsTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void it_should_merge_a_patch_into_a_copy_of_the_pending_upsert() {
+        TableMapping tableMapping = new TableMapping();
+        tableMapping.setMappingName("users");
+        DatabaseMapping databaseMapping = new DatabaseMapping();
+        Connector connector = mock(Connector.class);
+        FlattenMongoDocument insertedDocument = document("name", "John");
+
+        TableOperations tableOperations = new TableOperations(databaseMapping, tableMapping);
+        tableOperations.upsert(insertedDocument);
+        tableOperations.patch(document("name", "Jane"));
+        tableOperations.applyTo(connector);
+
+        ArgumentCaptor<Collection<FlattenMongoDocument>> upserts = ArgumentCaptor.forClass(Collection.class);
+        verify(connector).upsertAll(eq("users"), upserts.capture(), eq(databaseMapping));
+        verify(connector, never()).patchAll(any(), any(), any());
+        assertThat(upserts.getValue()).hasSize(1);
+        assertThat(upserts.getValue().iterator().next().getValues()).contains(entry("name", "Jane"));
+        assertThat(insertedDocument.getValues()).contains(entry("name", "John"));
+    }
+
+    private static FlattenMongoDocument document(String field, Object value) {
+        Map<String, Object> values = new HashMap<>();
+        values.put("_id", "5b9a4ea2a6e1b2312e7e7a10");
+        values.put(field, value);
+        FlattenMongoDocument document = new FlattenMongoDocument();
+        document.setValues(values);
+        return document;
+    }
+}
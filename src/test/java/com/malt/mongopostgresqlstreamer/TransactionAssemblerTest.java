@@ -0,0 +1,76 @@
+package com.malt.mongopostgresqlstreamer;
+
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TransactionAssemblerTest {
+
+    private static final Document SESSION = new Document("id", "session-1");
+
+    private final TransactionAssembler transactions = new TransactionAssembler("shop.carts"::equals);
+
+    @Test
+    void it_should_expand_the_mapped_changes_of_a_transaction() {
+        List<Document> expanded = transactions.expand(transaction(12, new Document("applyOps", asList(
+                insert("shop.carts", "cart-1"),
+                insert("shop.audit", "log-1"),
+                new Document("op", "n").append("ns", "").append("o", new Document()),
+                remove("shop.carts", "cart-2")
+        ))));
+
+        assertThat(expanded).extracting(entry -> entry.getString("op")).containsExactly("i", "d");
+        assertThat(expanded).extracting(entry -> entry.get("ts")).containsOnly(new BsonTimestamp(12, 1));
+        assertThat(transactions.hasPendingTransaction()).isFalse();
+    }
+
+    @Test
+    void it_should_wait_for_the_commit_of_a_transaction_written_in_several_entries() {
+        List<Document> firstEntry = transactions.expand(transaction(12, new Document("applyOps", singletonList(insert("shop.carts", "cart-1")))
+                .append("partialTxn", true)));
+        List<Document> preparation = transactions.expand(transaction(13, new Document("applyOps", singletonList(remove("shop.carts", "cart-2")))
+                .append("prepare", true)));
+
+        assertThat(firstEntry).isEmpty();
+        assertThat(preparation).isEmpty();
+        assertThat(transactions.hasPendingTransaction()).isTrue();
+
+        List<Document> commit = transactions.expand(transaction(14, new Document("commitTransaction", 1)));
+
+        assertThat(commit).extracting(entry -> entry.getString("op")).containsExactly("i", "d");
+        assertThat(commit).extracting(entry -> entry.get("ts")).containsOnly(new BsonTimestamp(14, 1));
+        assertThat(transactions.hasPendingTransaction()).isFalse();
+    }
+
+    @Test
+    void it_should_drop_aborted_transactions() {
+        transactions.expand(transaction(12, new Document("applyOps", singletonList(insert("shop.carts", "cart-1")))
+                .append("prepare", true)));
+
+        assertThat(transactions.expand(transaction(13, new Document("abortTransaction", 1)))).isEmpty();
+        assertThat(transactions.hasPendingTransaction()).isFalse();
+    }
+
+    private Document transaction(int time, Document command) {
+        return new Document("ts", new BsonTimestamp(time, 1))
+                .append("op", "c")
+                .append("ns", "admin.$cmd")
+                .append("o", command)
+                .append("lsid", SESSION)
+                .append("txnNumber", 3L);
+    }
+
+    private Document insert(String namespace, String id) {
+        return new Document("op", "i").append("ns", namespace).append("o", new Document("_id", id));
+    }
+
+    private Document remove(String namespace, String id) {
+        return new Document("op", "d").append("ns", namespace).append("o", new Document("_id", id));
+    }
+}
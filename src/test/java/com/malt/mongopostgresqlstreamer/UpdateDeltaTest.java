@@ -0,0 +1,130 @@
+package com.malt.mongopostgresqlstreamer;
+
+import com.malt.mongopostgresqlstreamer.model.FieldMapping;
+import com.malt.mongopostgresqlstreamer.model.FilterMapping;
+import com.malt.mongopostgresqlstreamer.model.FlattenMongoDocument;
+import com.malt.mongopostgresqlstreamer.model.TableMapping;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+class UpdateDeltaTest {
+
+    private static final ObjectId ID = new ObjectId("5b9a4ea2a6e1b2312e7e7a10");
+
+    @Test
+    void it_should_not_handle_document_replacements() {
+        Document replacement = givenUpdate(new Document("_id", ID).append("name", "John Doe"));
+
+        assertThat(UpdateDelta.of(replacement)).isEmpty();
+    }
+
+    @Test
+    void it_should_patch_modified_and_removed_scalar_fields() {
+        Document update = givenUpdate(new Document("$v", 1)
+                .append("$set", new Document("name", "John Doe").append("address", new Document("city", "Paris")))
+                .append("$unset", new Document("birthday", true)));
+
+        Optional<FlattenMongoDocument> patch = UpdateDelta.of(update).flatMap(delta -> delta.toPatch(givenUsersMapping()));
+
+        assertThat(patch).isPresent();
+        assertThat(patch.get().getValues()).containsOnly(
+                entry("_id", ID.toString()),
+                entry("name", "John Doe"),
+                entry("address.city", "Paris"),
+                entry("address.zipcode", null),
+                entry("birthday", null)
+        );
+    }
+
+    @Test
+    void it_should_not_patch_arrays_nor_filtered_fields() {
+        TableMapping mapping = givenUsersMapping();
+        mapping.setFilters(singletonList(new FilterMapping("status", "active")));
+
+        Document arrayUpdate = givenUpdate(new Document("$set", new Document("tags.1", "java")));
+        Document filteredUpdate = givenUpdate(new Document("$unset", new Document("status", true)));
+
+        assertThat(UpdateDelta.of(arrayUpdate).flatMap(delta -> delta.toPatch(mapping))).isEmpty();
+        assertThat(UpdateDelta.of(filteredUpdate).flatMap(delta -> delta.toPatch(mapping))).isEmpty();
+    }
+
+    @Test
+    void it_should_detect_updates_of_unmapped_fields_only() {
+        TableMapping mapping = givenUsersMapping();
+
+        Document counterUpdate = givenUpdate(new Document("$set", new Document("visits", 12).append("audit.updatedAt", "now")));
+        Document subDocumentUpdate = givenUpdate(new Document("$set", new Document("address", new Document("city", "Lyon"))));
+        Document arrayUpdate = givenUpdate(new Document("$set", new Document("tags.0", "java")));
+
+        assertThat(UpdateDelta.of(counterUpdate).get().touches(mapping)).isFalse();
+        assertThat(UpdateDelta.of(subDocumentUpdate).get().touches(mapping)).isTrue();
+        assertThat(UpdateDelta.of(arrayUpdate).get().touches(mapping)).isTrue();
+    }
+
+    @Test
+    void it_should_patch_the_fields_of_a_diff() {
+        Document update = givenUpdate(new Document("$v", 2).append("diff", new Document()
+                .append("u", new Document("name", "John Doe"))
+                .append("d", new Document("birthday", false))
+                .append("saddress", new Document("i", new Document("city", "Paris")))));
+
+        Optional<FlattenMongoDocument> patch = UpdateDelta.of(update).flatMap(delta -> delta.toPatch(givenUsersMapping()));
+
+        assertThat(patch).isPresent();
+        assertThat(patch.get().getValues()).containsOnly(
+                entry("_id", ID.toString()),
+                entry("name", "John Doe"),
+                entry("address.city", "Paris"),
+                entry("birthday", null)
+        );
+    }
+
+    @Test
+    void it_should_detect_diffs_of_unmapped_fields_only() {
+        Document counterUpdate = givenUpdate(new Document("$v", 2).append("diff", new Document()
+                .append("u", new Document("visits", 12))
+                .append("saudit", new Document("u", new Document("updatedAt", "now")))));
+
+        assertThat(UpdateDelta.of(counterUpdate).get().touches(givenUsersMapping())).isFalse();
+    }
+
+    @Test
+    void it_should_not_read_the_diff_of_an_array() {
+        Document arrayUpdate = givenUpdate(new Document("$v", 2).append("diff",
+                new Document("stags", new Document("a", true).append("u1", "java"))));
+
+        assertThat(UpdateDelta.of(arrayUpdate)).isEmpty();
+    }
+
+    private Document givenUpdate(Document modifications) {
+        return new Document("op", "u")
+                .append("ns", "test.users")
+                .append("o", modifications)
+                .append("o2", new Document("_id", ID));
+    }
+
+    private TableMapping givenUsersMapping() {
+        TableMapping mapping = new TableMapping();
+        mapping.setPrimaryKey("id");
+        mapping.setSourceCollection("users");
+        mapping.setDestinationName("users");
+        mapping.setMappingName("users");
+        mapping.setFieldMappings(asList(
+                new FieldMapping("_id", "id", "TEXT", false, null, null),
+                new FieldMapping("name", "name", "TEXT", false, null, null),
+                new FieldMapping("birthday", "birthday", "TIMESTAMP", false, null, null),
+                new FieldMapping("address.city", "city", "TEXT", false, null, null),
+                new FieldMapping("address.zipcode", "zipcode", "TEXT", false, null, null),
+                new FieldMapping("tags", "user_tags", "_ARRAY_OF_SCALARS", false, "user_id", "tag")
+        ));
+        return mapping;
+    }
+}
@@ -10,9 +10,9 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 
 import java.util.*;
-import java.util.stream.Stream;
 
 import static java.util.Arrays.asList;
 import static java.util.Collections.singletonList;
@@ -57,6 +57,31 @@ class PostgreSqlConnectorTest {
                     );
         }
 
+        @Test
+        @SuppressWarnings("unchecked")
+        void it_should_update_only_the_fields_of_a_patch() {
+            Map<String, Object> patch = new HashMap<>();
+            patch.put("_id", "5b9a4ea2a6e1b2312e7e7a10");
+            patch.put("birthday", null);
+            TableMapping tableMapping = givenTableUsersMapping();
+            DatabaseMapping dbMapping = givenDatabaseMapping("users", tableMapping);
+
+            FlattenMongoDocument patchDocument = new FlattenMongoDocument();
+            patchDocument.setValues(patch);
+            connector.patchAll(tableMapping.getMappingName(), singletonList(patchDocument), dbMapping);
+
+            ArgumentCaptor<List<List<Field>>> argRows = ArgumentCaptor.forClass(List.class);
+            verify(sqlExecutor).updateAll(eq("users"), eq("id"), argRows.capture());
+
+            assertThat(argRows.getValue()).hasSize(1);
+            assertThat(argRows.getValue().get(0))
+                    .extracting(Field::getName, Field::getValue)
+                    .containsExactly(
+                            tuple("birthday", null),
+                            tuple("id", "5b9a4ea2a6e1b2312e7e7a10")
+                    );
+        }
+
         private Map<String, Object> givenUser() {
             Map<String, Object> user = new HashMap<>();
             user.put("_id", UUID.randomUUID().toString());
@@ -87,7 +112,8 @@ class PostgreSqlConnectorTest {
             DatabaseMapping dbMapping = givenDatabaseMapping("teams", givenTableTeamMapping(), givenTableTeamMembersMapping());
             FlattenMongoDocument flattenedDocument = FlattenMongoDocument.fromDocument(givenTeamDocument());
 
-            connector.bulkInsert("teams", 1, Stream.of(flattenedDocument), dbMapping);
+            connector.addToBulkInsert("teams", flattenedDocument, dbMapping);
+            connector.finishBulkInsert("teams", dbMapping);
 
             verifyBulkInsert();
         }
@@ -97,18 +123,51 @@ class PostgreSqlConnectorTest {
             DatabaseMapping dbMapping = givenDatabaseMapping("teams", givenTableTeamMapping(), givenTableTeamMembersMapping());
             FlattenMongoDocument flattenedDocument = FlattenMongoDocument.fromDocument(givenTeamDocumentWithoutMembers());
 
-            connector.bulkInsert("teams", 1, Stream.of(flattenedDocument), dbMapping);
+            connector.addToBulkInsert("teams", flattenedDocument, dbMapping);
+            connector.finishBulkInsert("teams", dbMapping);
 
             verifyBulkInsert();
         }
 
+        @Test
+        void it_should_add_documents_to_a_bulk_insert_until_it_is_finished() {
+            DatabaseMapping dbMapping = givenDatabaseMapping("teams", givenTableTeamMapping(), givenTableTeamMembersMapping());
+            FlattenMongoDocument flattenedDocument = FlattenMongoDocument.fromDocument(givenTeamDocument());
+
+            connector.addToBulkInsert("teams", flattenedDocument, dbMapping);
+
+            verify(sqlExecutor).batchInsert(eq("teams"), eq("teams"), anyList(), anyList());
+            verify(sqlExecutor, times(2)).batchInsert(eq("teams"), eq("team_members"), anyList(), anyList());
+            verify(sqlExecutor, never()).finalizeBatchInsert(anyString());
+
+            connector.finishBulkInsert("teams", dbMapping);
+
+            verify(sqlExecutor).finalizeBatchInsert("teams");
+        }
+
+        @Test
+        void it_should_swap_the_shadow_tables_with_the_current_ones() {
+            DatabaseMapping dbMapping = givenDatabaseMapping("teams", givenTableTeamMapping(), givenTableTeamMembersMapping());
+            when(sqlExecutor.tableExists("mongo_streamer_shadow", "teams")).thenReturn(true);
+            when(sqlExecutor.currentSchema()).thenReturn("public");
+
+            connector.swapShadowTables("teams", dbMapping);
+
+            InOrder inOrder = inOrder(sqlExecutor);
+            inOrder.verify(sqlExecutor).dropTable("team_members");
+            inOrder.verify(sqlExecutor).dropTable("teams");
+            inOrder.verify(sqlExecutor).moveTable("mongo_streamer_shadow", "teams", "public");
+            inOrder.verify(sqlExecutor).moveTable("mongo_streamer_shadow", "team_members", "public");
+        }
+
         @Test
         @SuppressWarnings("unchecked")
         void it_should_bulk_insert_table_and_related_collection() {
             DatabaseMapping dbMapping = givenDatabaseMapping("teams", givenTableTeamMapping(), givenTableTeamMembersMapping());
             FlattenMongoDocument flattenedDocument = FlattenMongoDocument.fromDocument(givenTeamDocument());
 
-            connector.bulkInsert("teams", 1, Stream.of(flattenedDocument), dbMapping);
+            connector.addToBulkInsert("teams", flattenedDocument, dbMapping);
+            connector.finishBulkInsert("teams", dbMapping);
 
             ArgumentCaptor<List<FieldMapping>> argFieldMappings = ArgumentCaptor.forClass(List.class);
             ArgumentCaptor<List<Field>> argFields = ArgumentCaptor.forClass(List.class);
@@ -121,6 +180,30 @@ class PostgreSqlConnectorTest {
             verifyBulkInsertRelatedCollection(fieldMappings.get(1), fields.get(1));
         }
 
+        @Test
+        @SuppressWarnings("unchecked")
+        void it_should_upsert_several_documents_and_replace_their_related_entries() {
+            DatabaseMapping dbMapping = givenDatabaseMapping("teams", givenTableTeamMapping(), givenTableTeamMembersMapping());
+            Document avengers = givenTeamDocument();
+            avengers.put("_id", new ObjectId().toHexString());
+            Document defenders = givenTeamDocumentWithoutMembers();
+            defenders.put("_id", new ObjectId().toHexString());
+
+            connector.upsertAll("teams", asList(
+                    FlattenMongoDocument.fromDocument(avengers),
+                    FlattenMongoDocument.fromDocument(defenders)
+            ), dbMapping);
+
+            verify(sqlExecutor).removeAll("team_members", "team_id", asList(avengers.get("_id"), defenders.get("_id")));
+
+            ArgumentCaptor<List<List<Field>>> argRows = ArgumentCaptor.forClass(List.class);
+            verify(sqlExecutor).upsertAll(eq("teams"), eq("id"), argRows.capture());
+            assertThat(argRows.getValue()).hasSize(2);
+
+            verify(sqlExecutor, times(2)).batchInsert(eq("teams"), eq("team_members"), anyList(), anyList());
+            verify(sqlExecutor).finalizeBatchInsert("teams");
+        }
+
         private void verifyBulkInsertRelatedCollection(List<FieldMapping> fieldMappings, List<Field> fields) {
             assertThat(fieldMappings).hasSize(4)
                     .extracting(
@@ -248,7 +331,8 @@ class PostgreSqlConnectorTest {
 
             FlattenMongoDocument flattenedDocument = FlattenMongoDocument.fromDocument(givenUserDocument());
 
-            connector.bulkInsert("users", 1, Stream.of(flattenedDocument), dbMapping);
+            connector.addToBulkInsert("users", flattenedDocument, dbMapping);
+            connector.finishBulkInsert("users", dbMapping);
 
             verifyUserInsertion();
             verifyUserCommentsWithTagsInsertion();
@@ -0,0 +1,34 @@
+package com.malt.mongopostgresqlstreamer.connectors.postgres.batch;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BatchSizeControllerTest {
+
+    @Test
+    void it_should_grow_while_full_batches_are_written_within_the_target_latency() {
+        BatchSizeController controller = new BatchSizeController(500, 10, 560, 1000);
+
+        controller.succeeded(500, 200);
+        assertThat(controller.currentSize()).isEqualTo(550);
+
+        controller.succeeded(120, 200);
+        assertThat(controller.currentSize()).isEqualTo(550);
+
+        controller.succeeded(550, 200);
+        assertThat(controller.currentSize()).isEqualTo(560);
+    }
+
+    @Test
+    void it_should_halve_after_a_slow_or_failed_batch() {
+        BatchSizeController controller = new BatchSizeController(500, 100, 10000, 1000);
+
+        controller.succeeded(500, 3000);
+        assertThat(controller.currentSize()).isEqualTo(250);
+
+        controller.failed();
+        controller.failed();
+        assertThat(controller.currentSize()).isEqualTo(100);
+    }
+}
@@ -23,7 +23,7 @@ class SingleTableCopyOperationsTest {
         );
 
         CopyManager copyManager = mock(CopyManager.class);
-        SingleTableCopyOperations operations = new SingleTableCopyOperations(tableName, expectedFields, copyManager);
+        SingleTableCopyOperations operations = new SingleTableCopyOperations(tableName, expectedFields, copyManager::copyIn);
 
         List<Field> fields = asList(
                 givenField("id", 1L),